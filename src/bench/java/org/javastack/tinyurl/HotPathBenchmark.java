@@ -0,0 +1,309 @@
+package org.javastack.tinyurl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.javastack.stringproperties.StringProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH microbenchmarks of request hot paths, results in JSON (compare runs with any JMH visualizer or diff)
+ * <p>
+ * Same package as servlets, to reach package-private helpers.
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=org.javastack.tinyurl.HotPathBenchmark \
+ *     -Dexec.args="[regexp] [result.json]"
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+	static final String URL_PREFIX = "https://www.example.com/bench/";
+
+	@State(Scope.Thread)
+	public static class HasherState {
+		@Param({ Hasher.MD5, Hasher.MURMUR3 })
+		public String algorithm;
+		Hasher hasher;
+		String[] urls;
+		int next = 0;
+
+		@Setup
+		public void setup() throws Exception {
+			hasher = new Hasher(algorithm);
+			urls = new String[1024];
+			for (int i = 0; i < urls.length; i++) {
+				urls[i] = URL_PREFIX + i + "/" + Long.toHexString(i * 31L) + "?utm_source=bench";
+			}
+		}
+
+		String nextURL() {
+			return urls[(next++) & (urls.length - 1)];
+		}
+	}
+
+	@Benchmark
+	public String hashURL(final HasherState s) {
+		return s.hasher.hashURL(s.nextURL());
+	}
+
+	@State(Scope.Thread)
+	public static class PathState {
+		final String[] paths = { "/iN8diz", "/Ab-_9z", "/q0W1e2", "/ZZZZZZ" };
+		int next = 0;
+	}
+
+	@Benchmark
+	public String getPathInfoKey(final PathState s) {
+		return TinyURL.getPathInfoKey(s.paths[(s.next++) & 3]);
+	}
+
+	@State(Scope.Benchmark)
+	public static class WhiteListState {
+		@Param({ "100", "10000", "1000000" })
+		public int size;
+		WhiteList whiteList;
+		String[] queries;
+		File file;
+
+		@Setup
+		public void setup() throws Exception {
+			Logger.getRootLogger().setLevel(Level.ERROR);
+			final Random r = new Random(size);
+			final String[] domains = new String[size];
+			file = File.createTempFile("whitelist-bench", ".conf");
+			final Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+			try {
+				for (int i = 0; i < size; i++) {
+					domains[i] = "d" + Integer.toString(r.nextInt(Integer.MAX_VALUE), 36) + ".example" + (i % 50)
+							+ ".com";
+					out.write(((i & 3) == 0) ? "." + domains[i] : domains[i]);
+					out.write('\n');
+				}
+			} finally {
+				out.close();
+			}
+			whiteList = new WhiteList(file.toURI().toString());
+			whiteList.load();
+			queries = new String[1024];
+			for (int i = 0; i < queries.length; i++) {
+				final String d = domains[r.nextInt(size)];
+				switch (i & 3) {
+					case 0:
+						queries[i] = d;
+						break;
+					case 1:
+						queries[i] = "www." + d;
+						break;
+					default:
+						queries[i] = "x" + i + ".notlisted" + i + ".org";
+						break;
+				}
+			}
+		}
+
+		@TearDown
+		public void tearDown() {
+			file.delete();
+		}
+	}
+
+	@Benchmark
+	public boolean checkWhiteList(final WhiteListState s) {
+		return s.whiteList.checkWhiteList(s.queries[ThreadLocalRandom.current().nextInt(s.queries.length)]);
+	}
+
+	@State(Scope.Benchmark)
+	public static class StoreState {
+		@Param({ "10000", "100000", "1000000" })
+		public int keys;
+		PersistentKVStore store;
+		Hasher hasher;
+		String[] ids;
+		final AtomicLong sequence = new AtomicLong();
+		File dir;
+
+		@Setup
+		public void setup() throws Exception {
+			Logger.getRootLogger().setLevel(Level.ERROR);
+			dir = Files.createTempDirectory("tinyurl-jmh").toFile();
+			store = new PersistentKVStore();
+			final StringProperties conf = new StringProperties();
+			conf.setProperty("dir", dir.getAbsolutePath());
+			conf.setProperty("bloom.expected", String.valueOf(keys * 2));
+			store.configure(conf);
+			store.open();
+			hasher = new Hasher();
+			ids = new String[keys];
+			final Map<String, String> chunk = new HashMap<String, String>();
+			for (int i = 0; i < keys; i++) {
+				final String url = URL_PREFIX + i;
+				ids[i] = hasher.hashURL(url);
+				chunk.put(ids[i], url);
+				if ((chunk.size() >= Constants.LOAD_BATCH) || (i == (keys - 1))) {
+					store.putAll(chunk);
+					chunk.clear();
+				}
+			}
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			store.close();
+			deleteRecursive(dir);
+		}
+	}
+
+	@Benchmark
+	public TinyData storeGet(final StoreState s) throws IOException {
+		return s.store.get(s.ids[ThreadLocalRandom.current().nextInt(s.ids.length)]);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public void storePut(final StoreState s) throws IOException {
+		final String url = URL_PREFIX + "put/" + s.sequence.incrementAndGet();
+		s.store.put(s.hasher.hashURL(url), url);
+	}
+
+	@State(Scope.Benchmark)
+	public static class QRState {
+		@Param({ "300" })
+		public int size;
+		TinyQR.QRModules modules;
+		final String input = "https://tiny.javastack.org/r/iN8diz";
+
+		@Setup
+		public void setup() throws IOException {
+			modules = TinyQR.encodeModules(input);
+		}
+	}
+
+	/**
+	 * Cache miss: encode and render
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public byte[] generateQR(final QRState s) throws IOException {
+		return TinyQR.renderPNG(TinyQR.encodeModules(s.input), s.size);
+	}
+
+	/**
+	 * Module cache hit: render only
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public byte[] generateQRCachedModules(final QRState s) throws IOException {
+		return TinyQR.renderPNG(s.modules, s.size);
+	}
+
+	@State(Scope.Benchmark)
+	public static class CheckCacheState {
+		TinyLFUCache<String, Boolean> cache;
+		String[] hosts;
+
+		@Setup
+		public void setup() {
+			// Same shape as TinyURL checkCache: bounded, per-entry TTL, more hosts than capacity
+			cache = new TinyLFUCache<String, Boolean>(Constants.DEF_CHECK_CACHE_SIZE);
+			hosts = new String[Constants.DEF_CHECK_CACHE_SIZE * 2];
+			for (int i = 0; i < hosts.length; i++) {
+				hosts[i] = "host" + i + ".example.com";
+			}
+		}
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Boolean checkCache(final CheckCacheState s) {
+		// Skewed: lower hosts more popular
+		final ThreadLocalRandom r = ThreadLocalRandom.current();
+		final String host = s.hosts[r.nextInt(1 + r.nextInt(s.hosts.length))];
+		final Boolean cached = s.cache.get(host);
+		if (cached != null)
+			return cached;
+		s.cache.put(host, Boolean.TRUE, Constants.DEF_CHECK_CACHE_EXPIRE);
+		return Boolean.TRUE;
+	}
+
+	static void deleteRecursive(final File f) {
+		final File[] childs = f.listFiles();
+		if (childs != null) {
+			for (final File c : childs) {
+				deleteRecursive(c);
+			}
+		}
+		f.delete();
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final String include = (args.length > 0 ? args[0] : HotPathBenchmark.class.getSimpleName());
+		final String result = (args.length > 1 ? args[1] : "target/jmh-result.json");
+		exportClassPath();
+		final Options opts = new OptionsBuilder() //
+				.include(include) //
+				.resultFormat(ResultFormatType.JSON) //
+				.result(result) //
+				.build();
+		new Runner(opts).run();
+		System.out.println("Results: " + new File(result).getAbsolutePath());
+	}
+
+	/**
+	 * Forked JVMs use java.class.path, under exec:java it doesn't include project classes
+	 */
+	private static void exportClassPath() {
+		final ClassLoader cl = Thread.currentThread().getContextClassLoader();
+		if (!(cl instanceof URLClassLoader))
+			return;
+		final StringBuilder sb = new StringBuilder();
+		for (final URL url : ((URLClassLoader) cl).getURLs()) {
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparatorChar);
+			}
+			try {
+				sb.append(new File(url.toURI()).getPath());
+			} catch (Exception e) {
+				sb.append(url.getPath());
+			}
+		}
+		if (sb.length() > 0) {
+			System.setProperty("java.class.path", sb.toString());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package org.javastack.tinyurl.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Redirect latency while slow URL validations (check.flags=CONNECTION) are in flight.
+ * <p>
+ * Starts a local slow HTTP server, and against a running TinyURL (configured with check.flags=CONNECTION,
+ * or WHITELIST including 127.0.0.1) sends shortens of slow URLs while measuring redirects of an existing
+ * key.
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=org.javastack.tinyurl.bench.AsyncShortenLoadTest \
+ *     -Dexec.args="http://localhost:8080 [slowRequests] [slowDelayMillis] [seconds]"
+ * </pre>
+ */
+public class AsyncShortenLoadTest {
+	public static void main(final String[] args) throws Throwable {
+		if (args.length < 1) {
+			System.out.println(AsyncShortenLoadTest.class.getName()
+					+ " <base-url> [slowRequests] [slowDelayMillis] [seconds]");
+			System.exit(1);
+		}
+		final String base = args[0];
+		final int slowRequests = (args.length > 1 ? Integer.parseInt(args[1]) : 200);
+		final int slowDelay = (args.length > 2 ? Integer.parseInt(args[2]) : 5000);
+		final int seconds = (args.length > 3 ? Integer.parseInt(args[3]) : 5);
+		final HttpServer slow = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		slow.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+		slow.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(final HttpExchange ex) throws IOException {
+				try {
+					Thread.sleep(slowDelay);
+				} catch (InterruptedException e) {
+				}
+				ex.sendResponseHeaders(200, 0);
+				ex.close();
+			}
+		});
+		slow.start();
+		try {
+			final String slowBase = "http://127.0.0.1:" + slow.getAddress().getPort() + "/";
+			final String key = shorten(base, slowBase + "warmup-" + System.nanoTime());
+			System.out.println("redirect key=" + key + " (shortened with slow validation)");
+			report("idle", measure(base, key, seconds));
+			// Slow validations in flight
+			final AtomicInteger ok = new AtomicInteger(), errors = new AtomicInteger();
+			final CountDownLatch done = new CountDownLatch(slowRequests);
+			final String run = Long.toString(System.nanoTime());
+			for (int i = 0; i < slowRequests; i++) {
+				final int n = i;
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							shorten(base, slowBase + run + "/" + n);
+							ok.incrementAndGet();
+						} catch (Exception e) {
+							errors.incrementAndGet();
+						} finally {
+							done.countDown();
+						}
+					}
+				}.start();
+			}
+			report("slow validations=" + slowRequests, measure(base, key, seconds));
+			done.await();
+			System.out.println("shortens ok=" + ok.get() + " errors/rejected=" + errors.get());
+		} finally {
+			slow.stop(0);
+			System.exit(0);
+		}
+	}
+
+	static String shorten(final String base, final String url) throws IOException {
+		final HttpURLConnection conn = (HttpURLConnection) new URL(base + "/tiny").openConnection();
+		conn.setDoOutput(true);
+		conn.setReadTimeout(120000);
+		final OutputStream os = conn.getOutputStream();
+		os.write(("url=" + URLEncoder.encode(url, "UTF-8")).getBytes("ISO-8859-1"));
+		os.close();
+		if (conn.getResponseCode() != 200) {
+			throw new IOException("HTTP " + conn.getResponseCode());
+		}
+		final String body = readAll(conn.getInputStream());
+		final int b = body.indexOf("\"id\": \"") + 7;
+		return body.substring(b, body.indexOf('"', b));
+	}
+
+	static long[] measure(final String base, final String key, final int seconds) throws IOException {
+		final List<Long> lat = new ArrayList<Long>();
+		final long end = System.nanoTime() + seconds * 1000000000L;
+		while (System.nanoTime() < end) {
+			final long begin = System.nanoTime();
+			final HttpURLConnection conn = (HttpURLConnection) new URL(base + "/r/" + key).openConnection();
+			conn.setInstanceFollowRedirects(false);
+			conn.setReadTimeout(120000);
+			final int code = conn.getResponseCode();
+			readAll(conn.getInputStream());
+			lat.add(System.nanoTime() - begin);
+			if (code != 302) {
+				throw new IOException("HTTP " + code);
+			}
+		}
+		final long[] res = new long[lat.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = lat.get(i);
+		}
+		Arrays.sort(res);
+		return res;
+	}
+
+	static void report(final String name, final long[] sorted) {
+		System.out.printf("%-28s redirects=%7d p50=%8.2fms p99=%8.2fms max=%8.2fms%n", name, sorted.length, //
+				KVStoreWriteBenchmark.percentile(sorted, 0.50) / 1e6, //
+				KVStoreWriteBenchmark.percentile(sorted, 0.99) / 1e6, //
+				sorted[sorted.length - 1] / 1e6);
+	}
+
+	static String readAll(final InputStream is) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		final byte[] buf = new byte[1024];
+		int len;
+		while ((len = is.read(buf)) > 0) {
+			sb.append(new String(buf, 0, len, "ISO-8859-1"));
+		}
+		is.close();
+		return sb.toString();
+	}
+}
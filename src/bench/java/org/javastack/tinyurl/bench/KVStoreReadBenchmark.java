@@ -0,0 +1,119 @@
+package org.javastack.tinyurl.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.javastack.stringproperties.StringProperties;
+import org.javastack.tinyurl.Hasher;
+import org.javastack.tinyurl.PersistentKVStore;
+import org.javastack.tinyurl.TinyData;
+
+/**
+ * Redirect lookups (PersistentKVStore.get) throughput by number of threads
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=org.javastack.tinyurl.bench.KVStoreReadBenchmark \
+ *     -Dexec.args="[keys] [seconds] [maxThreads]"
+ * </pre>
+ */
+public class KVStoreReadBenchmark {
+	public static void main(final String[] args) throws Throwable {
+		final int keys = (args.length > 0 ? Integer.parseInt(args[0]) : 100000);
+		final int seconds = (args.length > 1 ? Integer.parseInt(args[1]) : 5);
+		final int maxThreads = (args.length > 2 ? Integer.parseInt(args[2]) : //
+				Runtime.getRuntime().availableProcessors() * 2);
+		Logger.getRootLogger().setLevel(Level.ERROR);
+		final File dir = Files.createTempDirectory("tinyurl-bench").toFile();
+		final PersistentKVStore store = new PersistentKVStore();
+		try {
+			final StringProperties conf = new StringProperties();
+			conf.setProperty("dir", dir.getAbsolutePath());
+			store.configure(conf);
+			store.open();
+			final String[] ids = fill(store, keys);
+			System.out.println("keys=" + ids.length + " seconds=" + seconds);
+			double base = 0;
+			for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+				final double ops = run(store, ids, threads, seconds);
+				if (threads == 1) {
+					base = ops;
+				}
+				System.out.printf("threads=%3d ops/sec=%12.0f scaling=%5.2fx%n", threads, ops, ops / base);
+			}
+		} finally {
+			store.close();
+			deleteRecursive(dir);
+		}
+	}
+
+	static String[] fill(final PersistentKVStore store, final int keys) throws Exception {
+		final Hasher hasher = new Hasher();
+		final String[] ids = new String[keys];
+		for (int i = 0; i < keys; i++) {
+			final String url = "https://www.example.com/bench/" + i + "/" + Long.toHexString(i * 31L);
+			ids[i] = hasher.hashURL(url);
+			store.put(ids[i], url);
+		}
+		return ids;
+	}
+
+	static double run(final PersistentKVStore store, final String[] ids, final int threads, final int seconds)
+			throws InterruptedException {
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final LongAdder ops = new LongAdder();
+		final CountDownLatch ready = new CountDownLatch(threads);
+		final CountDownLatch start = new CountDownLatch(1);
+		final Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread() {
+				@Override
+				public void run() {
+					final ThreadLocalRandom r = ThreadLocalRandom.current();
+					ready.countDown();
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					long count = 0;
+					while (running.get()) {
+						final TinyData d = store.get(ids[r.nextInt(ids.length)]);
+						if (d == null) {
+							throw new IllegalStateException("key not found");
+						}
+						count++;
+					}
+					ops.add(count);
+				}
+			};
+			workers[t].start();
+		}
+		ready.await();
+		final long begin = System.nanoTime();
+		start.countDown();
+		Thread.sleep(seconds * 1000L);
+		running.set(false);
+		for (final Thread t : workers) {
+			t.join();
+		}
+		final double elapsed = (System.nanoTime() - begin) / 1e9;
+		return ops.sum() / elapsed;
+	}
+
+	static void deleteRecursive(final File f) throws IOException {
+		final File[] childs = f.listFiles();
+		if (childs != null) {
+			for (final File c : childs) {
+				deleteRecursive(c);
+			}
+		}
+		f.delete();
+	}
+}
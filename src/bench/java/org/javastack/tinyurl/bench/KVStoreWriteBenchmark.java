@@ -0,0 +1,90 @@
+package org.javastack.tinyurl.bench;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.javastack.stringproperties.StringProperties;
+import org.javastack.tinyurl.Hasher;
+import org.javastack.tinyurl.PersistentKVStore;
+
+/**
+ * Puts/sec and latency of PersistentKVStore.put, sync on every put vs group commit (same durability: each put
+ * returns after fsync; sync on every put is group commit with batches of one put)
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=org.javastack.tinyurl.bench.KVStoreWriteBenchmark \
+ *     -Dexec.args="[puts] [threads]"
+ * </pre>
+ */
+public class KVStoreWriteBenchmark {
+	public static void main(final String[] args) throws Throwable {
+		final int puts = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+		final int threads = (args.length > 1 ? Integer.parseInt(args[1]) : 32);
+		Logger.getRootLogger().setLevel(Level.ERROR);
+		System.out.println("puts=" + puts + " threads=" + threads);
+		run("sync", 1, puts, threads);
+		run("group", 0, puts, threads); // default batch
+	}
+
+	static void run(final String name, final int batch, final int puts, final int threads) throws Exception {
+		final File dir = Files.createTempDirectory("tinyurl-bench").toFile();
+		final PersistentKVStore store = new PersistentKVStore();
+		try {
+			final StringProperties conf = new StringProperties();
+			conf.setProperty("dir", dir.getAbsolutePath());
+			conf.setProperty("commit.group", "true");
+			if (batch > 0) {
+				conf.setProperty("commit.group.batch", String.valueOf(batch));
+				conf.setProperty("commit.group.wait.micros", "0");
+			}
+			store.configure(conf);
+			store.open();
+			final Hasher hasher = new Hasher();
+			final long[] latencies = new long[puts];
+			final AtomicInteger next = new AtomicInteger();
+			final CountDownLatch done = new CountDownLatch(threads);
+			final long begin = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				new Thread() {
+					@Override
+					public void run() {
+						try {
+							int i;
+							while ((i = next.getAndIncrement()) < puts) {
+								final String url = "https://www.example.com/bench/" + name + "/" + i;
+								final long start = System.nanoTime();
+								store.put(hasher.hashURL(url), url);
+								latencies[i] = System.nanoTime() - start;
+							}
+						} catch (Exception e) {
+							e.printStackTrace();
+						} finally {
+							done.countDown();
+						}
+					}
+				}.start();
+			}
+			done.await();
+			final double elapsed = (System.nanoTime() - begin) / 1e9;
+			Arrays.sort(latencies);
+			System.out.printf("%-6s puts/sec=%10.0f p50=%8.1fus p99=%8.1fus p999=%8.1fus%n", name, //
+					puts / elapsed, //
+					percentile(latencies, 0.50) / 1e3, //
+					percentile(latencies, 0.99) / 1e3, //
+					percentile(latencies, 0.999) / 1e3);
+		} finally {
+			store.close();
+			KVStoreReadBenchmark.deleteRecursive(dir);
+		}
+	}
+
+	static long percentile(final long[] sorted, final double p) {
+		final int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+		return sorted[Math.max(0, index)];
+	}
+}
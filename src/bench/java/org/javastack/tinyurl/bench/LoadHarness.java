@@ -0,0 +1,365 @@
+package org.javastack.tinyurl.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+
+/**
+ * End-to-end load test: real TinyURL and TinyQR servlets (src/main/webapp/WEB-INF/web.xml) in embedded
+ * Tomcat, with temporary storage, driven by an open-loop load generator.
+ * <p>
+ * Requests are scheduled at a fixed rate and latency is measured from the intended start time (not the
+ * actual send time), so stalls are not hidden by the generator waiting (coordinated omission). Keys of
+ * redirects and QR fetches follow a Zipfian distribution (s=0.99). Runs offline: checks are only WHITELIST,
+ * with a local whitelist including the generated URLs.
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=org.javastack.tinyurl.bench.LoadHarness \
+ *     -Dexec.args="[rate] [seconds] [keys] [mix] [connections] [warmupSeconds]"
+ * </pre>
+ * mix is percentage of redirect:shorten:qr (default 80:10:10).
+ */
+public class LoadHarness {
+	private static final String DOMAIN = "bench.example.com";
+	private static final String DUMP_KEY = "bench";
+	private static final int PRELOAD_CHUNK = 1000;
+	private static final double ZIPF_S = 0.99;
+	private static final int[] QR_SIZES = { 150, 300, 600 };
+
+	enum Op {
+		REDIRECT, SHORTEN, QR
+	}
+
+	public static void main(final String[] args) throws Throwable {
+		final int rate = (args.length > 0 ? Integer.parseInt(args[0]) : 2000);
+		final int seconds = (args.length > 1 ? Integer.parseInt(args[1]) : 30);
+		final int keys = (args.length > 2 ? Integer.parseInt(args[2]) : 100000);
+		final String[] mix = (args.length > 3 ? args[3] : "80:10:10").split(":");
+		final int connections = (args.length > 4 ? Integer.parseInt(args[4]) : 64);
+		final int warmup = (args.length > 5 ? Integer.parseInt(args[5]) : 5);
+		final int pRedirect = Integer.parseInt(mix[0]);
+		final int pShorten = Integer.parseInt(mix[1]);
+		Logger.getRootLogger().setLevel(Level.ERROR);
+		final File dir = Files.createTempDirectory("tinyurl-load").toFile();
+		final Tomcat tomcat = startServer(dir);
+		try {
+			final String base = "http://127.0.0.1:" + tomcat.getConnector().getLocalPort();
+			System.out.println("server=" + base + " storage=" + dir);
+			final long beginPreload = System.nanoTime();
+			final String[] ids = preload(base, keys);
+			System.out.println("preloaded keys=" + ids.length + " ("
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginPreload) + "ms)");
+			final Load load = new Load(base, ids, pRedirect, pShorten, connections);
+			if (warmup > 0) {
+				load.run(rate, warmup);
+				load.reset();
+			}
+			System.out.println("rate=" + rate + "/s seconds=" + seconds + " mix=" + pRedirect + ":" + pShorten
+					+ ":" + (100 - pRedirect - pShorten) + " connections=" + connections + " zipf=" + ZIPF_S);
+			final long elapsed = load.run(rate, seconds);
+			load.report(elapsed);
+			load.shutdown();
+		} finally {
+			tomcat.stop();
+			tomcat.destroy();
+			deleteRecursive(dir);
+		}
+	}
+
+	static Tomcat startServer(final File dir) throws Exception {
+		final File storage = new File(dir, "storage");
+		final File whiteList = new File(dir, "whitelist.conf");
+		final File config = new File(dir, "tinyurl.properties");
+		writeText(whiteList, "." + DOMAIN + "\n");
+		final Properties p = new Properties();
+		p.setProperty("storage.dir", storage.getAbsolutePath());
+		p.setProperty("check.flags", "WHITELIST");
+		p.setProperty("whitelist.file", whiteList.toURI().toString());
+		p.setProperty("dump.key", DUMP_KEY);
+		final OutputStream out = new FileOutputStream(config);
+		try {
+			p.store(out, "LoadHarness");
+		} finally {
+			out.close();
+		}
+		System.setProperty("org.javastack.tinyurl.config", config.toURI().toString());
+		final Tomcat tomcat = new Tomcat();
+		tomcat.setBaseDir(new File(dir, "tomcat").getAbsolutePath());
+		tomcat.setPort(0);
+		tomcat.getConnector().setProperty("maxThreads", "200");
+		tomcat.setAddDefaultWebXmlToWebapp(false);
+		final Context ctx = tomcat.addWebapp("", new File("src/main/webapp").getAbsolutePath());
+		((StandardJarScanner) ctx.getJarScanner()).setScanClassPath(false);
+		tomcat.start();
+		return tomcat;
+	}
+
+	/**
+	 * Shorten keys URLs with batch endpoint
+	 */
+	static String[] preload(final String base, final int keys) throws IOException {
+		final String[] ids = new String[keys];
+		for (int from = 0; from < keys; from += PRELOAD_CHUNK) {
+			final int to = Math.min(keys, from + PRELOAD_CHUNK);
+			final StringBuilder sb = new StringBuilder((to - from) * 48);
+			for (int i = from; i < to; i++) {
+				sb.append(url(i)).append('\n');
+			}
+			final URL batch = new URL(base + "/batch/shorten");
+			final HttpURLConnection conn = (HttpURLConnection) batch.openConnection();
+			conn.setDoOutput(true);
+			conn.setRequestMethod("POST");
+			conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+			final OutputStream out = conn.getOutputStream();
+			out.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+			out.close();
+			if (conn.getResponseCode() != 200)
+				throw new IOException("Preload failed: HTTP " + conn.getResponseCode());
+			final String[] lines = new String(readFully(conn.getInputStream()), StandardCharsets.UTF_8)
+					.split("\n");
+			for (int i = from; i < to; i++) {
+				final String line = lines[i - from];
+				final int id = line.indexOf("\"id\": \"");
+				if (id < 0)
+					throw new IOException("Preload failed: " + line);
+				ids[i] = line.substring(id + 7, line.indexOf('"', id + 7));
+			}
+		}
+		return ids;
+	}
+
+	static String url(final long i) {
+		return "https://www." + DOMAIN + "/page/" + i + "?ref=" + Long.toHexString(i * 31L);
+	}
+
+	/**
+	 * Open-loop load: one scheduler thread releases requests at fixed intervals to a pool of connections
+	 */
+	static final class Load {
+		final String base;
+		final String[] ids;
+		final int pRedirect, pShorten;
+		final ExecutorService pool;
+		final Zipf zipf;
+		final AtomicLong nextURL;
+		final Histogram[] latency = new Histogram[Op.values().length];
+		final LongAdder[] errors = new LongAdder[Op.values().length];
+
+		Load(final String base, final String[] ids, final int pRedirect, final int pShorten,
+				final int connections) {
+			this.base = base;
+			this.ids = ids;
+			this.pRedirect = pRedirect;
+			this.pShorten = pShorten;
+			this.pool = Executors.newFixedThreadPool(connections);
+			this.zipf = new Zipf(ids.length, ZIPF_S);
+			this.nextURL = new AtomicLong(ids.length);
+			for (int i = 0; i < latency.length; i++) {
+				latency[i] = new ConcurrentHistogram(TimeUnit.MINUTES.toMicros(1), 3);
+				errors[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * @return elapsed nanos (until last response)
+		 */
+		long run(final int rate, final int seconds) throws InterruptedException {
+			final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+			final long total = (long) rate * seconds;
+			final LongAdder done = new LongAdder();
+			final long start = System.nanoTime();
+			for (long i = 0; i < total; i++) {
+				final long intended = start + (i * interval);
+				long now;
+				while ((now = System.nanoTime()) < intended) {
+					LockSupport.parkNanos(intended - now);
+				}
+				final int dice = ThreadLocalRandom.current().nextInt(100);
+				final Op op = ((dice < pRedirect) ? Op.REDIRECT
+						: ((dice < (pRedirect + pShorten)) ? Op.SHORTEN : Op.QR));
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if (!request(op)) {
+								errors[op.ordinal()].increment();
+							}
+						} catch (Exception e) {
+							errors[op.ordinal()].increment();
+						}
+						// From intended start: includes time queued behind slow requests
+						final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+						latency[op.ordinal()].recordValue(Math.min(micros, latency[op.ordinal()]
+								.getHighestTrackableValue()));
+						done.increment();
+					}
+				});
+			}
+			while (done.sum() < total) {
+				Thread.sleep(10);
+			}
+			return System.nanoTime() - start;
+		}
+
+		boolean request(final Op op) throws IOException {
+			final HttpURLConnection conn;
+			switch (op) {
+				case REDIRECT: {
+					conn = (HttpURLConnection) new URL(base + "/r/" + ids[zipf.next()]).openConnection();
+					conn.setInstanceFollowRedirects(false);
+					final int code = conn.getResponseCode();
+					readFully(conn.getInputStream());
+					return (code == HttpURLConnection.HTTP_MOVED_TEMP);
+				}
+				case SHORTEN: {
+					conn = (HttpURLConnection) new URL(base + "/tiny").openConnection();
+					conn.setDoOutput(true);
+					conn.setRequestMethod("POST");
+					final OutputStream out = conn.getOutputStream();
+					out.write(("url=" + URLEncoder.encode(url(nextURL.getAndIncrement()), "UTF-8"))
+							.getBytes(StandardCharsets.ISO_8859_1));
+					out.close();
+					final int code = conn.getResponseCode();
+					readFully(conn.getInputStream());
+					return (code == HttpURLConnection.HTTP_OK);
+				}
+				default: {
+					final int size = QR_SIZES[ThreadLocalRandom.current().nextInt(QR_SIZES.length)];
+					conn = (HttpURLConnection) new URL(base + "/q/" + ids[zipf.next()] + "?size=" + size)
+							.openConnection();
+					final int code = conn.getResponseCode();
+					readFully(conn.getInputStream());
+					return (code == HttpURLConnection.HTTP_OK);
+				}
+			}
+		}
+
+		void reset() {
+			for (int i = 0; i < latency.length; i++) {
+				latency[i].reset();
+				errors[i].reset();
+			}
+		}
+
+		void report(final long elapsedNanos) {
+			final double elapsed = elapsedNanos / 1e9;
+			final Histogram all = new Histogram(TimeUnit.MINUTES.toMicros(1), 3);
+			long allErrors = 0;
+			for (final Op op : Op.values()) {
+				final Histogram h = latency[op.ordinal()];
+				all.add(h);
+				allErrors += errors[op.ordinal()].sum();
+				print(op.name().toLowerCase(), h, errors[op.ordinal()].sum(), elapsed);
+			}
+			print("total", all, allErrors, elapsed);
+		}
+
+		static void print(final String name, final Histogram h, final long errors, final double elapsed) {
+			if (h.getTotalCount() == 0)
+				return;
+			System.out.printf("%-8s count=%9d errors=%6d ops/s=%9.0f p50=%8.2fms p99=%8.2fms p999=%8.2fms"
+					+ " max=%8.2fms%n", name, h.getTotalCount(), errors, h.getTotalCount() / elapsed,
+					h.getValueAtPercentile(50) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+					h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0);
+		}
+
+		void shutdown() {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Zipfian ranks [0, n), rank 0 most popular (Gray et al., "Quickly Generating Billion-Record Synthetic
+	 * Databases", as in YCSB)
+	 */
+	static final class Zipf {
+		final int n;
+		final double theta, alpha, zetan, eta;
+
+		Zipf(final int n, final double theta) {
+			this.n = n;
+			this.theta = theta;
+			final double zeta2 = zeta(2, theta);
+			this.zetan = zeta(n, theta);
+			this.alpha = 1.0 / (1.0 - theta);
+			this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / zetan);
+		}
+
+		static double zeta(final long n, final double theta) {
+			double sum = 0;
+			for (long i = 1; i <= n; i++) {
+				sum += 1 / Math.pow(i, theta);
+			}
+			return sum;
+		}
+
+		int next() {
+			final double u = ThreadLocalRandom.current().nextDouble();
+			final double uz = u * zetan;
+			if (uz < 1.0)
+				return 0;
+			if (uz < (1.0 + Math.pow(0.5, theta)))
+				return Math.min(1, n - 1);
+			return Math.min(n - 1, (int) (n * Math.pow(eta * u - eta + 1, alpha)));
+		}
+	}
+
+	static byte[] readFully(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+		final byte[] buf = new byte[8192];
+		try {
+			int n;
+			while ((n = in.read(buf)) > 0) {
+				out.write(buf, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+	static void writeText(final File file, final String text) throws IOException {
+		final Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8);
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+	}
+
+	static void deleteRecursive(final File f) {
+		final File[] childs = f.listFiles();
+		if (childs != null) {
+			for (final File c : childs) {
+				deleteRecursive(c);
+			}
+		}
+		f.delete();
+	}
+}
@@ -0,0 +1,148 @@
+package org.javastack.tinyurl.bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.javastack.stringproperties.StringProperties;
+import org.javastack.tinyurl.Hasher;
+import org.javastack.tinyurl.TinyData;
+import org.javastack.tinyurl.jdbc.PersistentMySQL;
+
+/**
+ * PersistentMySQL ops/sec (90% get, 10% put) with previous pool settings (one connection, validation on
+ * borrow with pool default interval, no statement cache), with current pool sizing and validation but without
+ * statement cache, and with current defaults, against H2 in MySQL mode or other JDBC URL
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=org.javastack.tinyurl.bench.MySQLBenchmark \
+ *     -Dexec.args="[threads] [seconds] [keys] [jdbcUrl] [driverClassName] [username] [password]"
+ * </pre>
+ */
+public class MySQLBenchmark {
+	private static final int WARMUP_SECONDS = 3; // not measured (JIT, pool and statement caches)
+
+	public static void main(final String[] args) throws Throwable {
+		final int threads = (args.length > 0 ? Integer.parseInt(args[0]) : 16);
+		final int seconds = (args.length > 1 ? Integer.parseInt(args[1]) : 10);
+		final int keys = (args.length > 2 ? Integer.parseInt(args[2]) : 10000);
+		final String url = (args.length > 3 ? args[3] : "jdbc:h2:mem:tinyurl;MODE=MySQL;DB_CLOSE_DELAY=-1");
+		final String driver = (args.length > 4 ? args[4] : "org.h2.Driver");
+		final String username = (args.length > 5 ? args[5] : "sa");
+		final String password = (args.length > 6 ? args[6] : "");
+		Logger.getRootLogger().setLevel(Level.ERROR);
+		System.out.println("threads=" + threads + " seconds=" + seconds + " keys=" + keys + " url=" + url);
+		final boolean h2 = driver.startsWith("org.h2.");
+		// Previous defaults (empty value: pool default)
+		final StringProperties before = conf(url, driver, username, password, "before");
+		before.setProperty("maxActive", "1");
+		before.setProperty("minIdle", "0");
+		before.setProperty("maxIdle", "1");
+		before.setProperty("validationInterval", "");
+		before.setProperty("testWhileIdle", "");
+		before.setProperty("jdbcInterceptors", "");
+		before.setProperty("connectionProperties", "");
+		final double opsBefore = run(before, threads, seconds, keys);
+		System.out.printf("before ops/sec=%12.0f%n", opsBefore);
+		// Current pool sizing and validation, no statement cache
+		final StringProperties pool = conf(url, driver, username, password, "pool");
+		pool.setProperty("jdbcInterceptors", "");
+		pool.setProperty("connectionProperties", "");
+		final double opsPool = run(pool, threads, seconds, keys);
+		System.out.printf("pool   ops/sec=%12.0f (%.2fx)%n", opsPool, opsPool / opsBefore);
+		// Current defaults
+		final StringProperties after = conf(url, driver, username, password, "after");
+		if (h2) {
+			after.setProperty("connectionProperties", ""); // MySQL driver properties
+		}
+		final double opsAfter = run(after, threads, seconds, keys);
+		System.out.printf("after  ops/sec=%12.0f (%.2fx)%n", opsAfter, opsAfter / opsBefore);
+	}
+
+	static StringProperties conf(final String url, final String driver, final String username,
+			final String password, final String table) {
+		final StringProperties conf = new StringProperties();
+		conf.setProperty("url", url);
+		conf.setProperty("driverClassName", driver);
+		conf.setProperty("username", username);
+		conf.setProperty("password", password);
+		conf.setProperty("table", "bench_" + table);
+		return conf;
+	}
+
+	static double run(final StringProperties conf, final int threads, final int seconds, final int keys)
+			throws Exception {
+		final PersistentMySQL store = new PersistentMySQL();
+		store.configure(conf);
+		store.open();
+		try {
+			final Hasher hasher = new Hasher();
+			final String[] ids = new String[keys];
+			for (int i = 0; i < keys; i++) {
+				final String u = "https://www.example.com/bench/" + i;
+				ids[i] = hasher.hashURL(u);
+				store.put(ids[i], u);
+			}
+			final AtomicBoolean running = new AtomicBoolean(true);
+			final LongAdder ops = new LongAdder();
+			final LongAdder errors = new LongAdder();
+			final CountDownLatch ready = new CountDownLatch(threads);
+			final CountDownLatch start = new CountDownLatch(1);
+			final Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				workers[t] = new Thread() {
+					@Override
+					public void run() {
+						final ThreadLocalRandom r = ThreadLocalRandom.current();
+						ready.countDown();
+						try {
+							start.await();
+						} catch (InterruptedException e) {
+							return;
+						}
+						while (running.get()) {
+							final int i = r.nextInt(ids.length);
+							try {
+								if (r.nextInt(10) == 0) {
+									store.put(ids[i], "https://www.example.com/bench/" + i);
+								} else {
+									final TinyData d = store.get(ids[i]);
+									if (d == null) {
+										throw new IllegalStateException("key not found");
+									}
+								}
+								ops.increment();
+							} catch (Exception e) {
+								errors.increment();
+							}
+						}
+					}
+				};
+				workers[t].start();
+			}
+			ready.await();
+			start.countDown();
+			Thread.sleep(WARMUP_SECONDS * 1000L);
+			ops.reset();
+			errors.reset();
+			final long begin = System.nanoTime();
+			Thread.sleep(seconds * 1000L);
+			final long done = ops.sum();
+			final double elapsed = (System.nanoTime() - begin) / 1e9;
+			final long failed = errors.sum();
+			running.set(false);
+			for (final Thread t : workers) {
+				t.join();
+			}
+			if (failed > 0) {
+				System.out.println("errors=" + failed);
+			}
+			return done / elapsed;
+		} finally {
+			store.close();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package org.javastack.tinyurl.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.javastack.tinyurl.DomainMatcher;
+
+/**
+ * WhiteList lookups: compiled DomainMatcher vs linear scan (previous implementation), by list size
+ *
+ * <pre>
+ * mvn -Pbench test-compile exec:java -Dexec.mainClass=org.javastack.tinyurl.bench.WhiteListBenchmark \
+ *     -Dexec.args="[sizes] [lookups]"
+ * </pre>
+ */
+public class WhiteListBenchmark {
+	private static final int MAX_LINEAR = 100000;
+
+	public static void main(final String[] args) throws Throwable {
+		final String[] sizes = (args.length > 0 ? args[0] : "10000,100000,1000000").split(",");
+		final int lookups = (args.length > 1 ? Integer.parseInt(args[1]) : 2000000);
+		for (final String size : sizes) {
+			run(Integer.parseInt(size.trim()), lookups);
+		}
+	}
+
+	static void run(final int size, final int lookups) {
+		final Random r = new Random(size);
+		final List<String> list = new ArrayList<String>(size);
+		for (int i = 0; i < size; i++) {
+			final String d = "d" + Integer.toString(r.nextInt(Integer.MAX_VALUE), 36) + ".example" + (i % 50)
+					+ ".com";
+			list.add(((i & 3) == 0) ? "." + d : d);
+		}
+		final String[] queries = new String[4096];
+		for (int i = 0; i < queries.length; i++) {
+			final String d = list.get(r.nextInt(size));
+			switch (i & 3) {
+				case 0: // exact or wildcard base
+					queries[i] = (d.charAt(0) == '.' ? d.substring(1) : d);
+					break;
+				case 1: // subdomain
+					queries[i] = "www.a" + i + (d.charAt(0) == '.' ? d : "." + d);
+					break;
+				default: // miss
+					queries[i] = "x" + i + ".notlisted" + i + ".org";
+					break;
+			}
+		}
+		System.gc();
+		final long beginCompile = System.nanoTime();
+		final DomainMatcher matcher = DomainMatcher.compile(list);
+		final long compileMillis = (System.nanoTime() - beginCompile) / 1000000;
+		// Same results as linear scan
+		for (final String q : queries) {
+			if (matcher.matches(q) != linear(list, q)) {
+				throw new IllegalStateException("Mismatch: " + q);
+			}
+		}
+		final double matcherOps = measure(lookups, queries, new Lookup() {
+			@Override
+			public boolean check(final String domain) {
+				return matcher.matches(domain);
+			}
+		});
+		String linearOps = "skipped";
+		if (size <= MAX_LINEAR) {
+			final int n = Math.max(1000, (int) (lookups / (size / 100L)));
+			linearOps = String.format("%.0f", measure(n, queries, new Lookup() {
+				@Override
+				public boolean check(final String domain) {
+					return linear(list, domain);
+				}
+			}));
+		}
+		System.out.printf("size=%8d distinct=%8d compile=%5dms memory=%10dbytes matcher=%12.0f/s linear=%s/s%n",
+				size, matcher.size(), compileMillis, matcher.memoryUsage(), matcherOps, linearOps);
+	}
+
+	interface Lookup {
+		boolean check(final String domain);
+	}
+
+	static double measure(final int lookups, final String[] queries, final Lookup lookup) {
+		int found = 0;
+		// warmup
+		for (int i = 0; i < Math.min(lookups, 100000); i++) {
+			found += (lookup.check(queries[i & (queries.length - 1)]) ? 1 : 0);
+		}
+		final long begin = System.nanoTime();
+		for (int i = 0; i < lookups; i++) {
+			found += (lookup.check(queries[i & (queries.length - 1)]) ? 1 : 0);
+		}
+		final double elapsed = (System.nanoTime() - begin) / 1e9;
+		if (found < 0) {
+			System.out.println(found);
+		}
+		return lookups / elapsed;
+	}
+
+	/**
+	 * Previous WhiteList implementation
+	 */
+	static boolean linear(final List<String> list, final String dd) {
+		final int len = list.size();
+		for (int i = 0; i < len; i++) {
+			final String d = list.get(i);
+			if (d.charAt(0) == '.') {
+				if (dd.endsWith(d) || dd.equals(d.substring(1))) {
+					return true;
+				}
+			} else {
+				if (dd.equals(d)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,159 @@
+package org.javastack.tinyurl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+import org.apache.log4j.MDC;
+
+/**
+ * Access log of redirects, written in caller thread or asynchronously.
+ * <p>
+ * Async: events are stored in a preallocated ring buffer (lock-free, no allocation) and formatted and logged
+ * by a background thread (MDC is restored there); when the buffer is full events are dropped and counted.
+ * Nothing is stored or formatted if INFO is disabled for the logger.
+ */
+final class AccessLog {
+	private final Logger log;
+	private final Event[] ring;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong(); // next slot to claim (producers)
+	private long head = 0; // next slot to log (writer thread)
+	private final LongAdder dropped = new LongAdder();
+	private final Thread writer;
+	private volatile boolean running = true;
+	private volatile boolean idle = false; // writer parked (or about to), waiting for events
+
+	/**
+	 * @param log destination logger
+	 * @param bufferSize events in ring buffer (rounded up to power of 2), 0 for synchronous log
+	 */
+	AccessLog(final Logger log, final int bufferSize) {
+		this.log = log;
+		if (bufferSize <= 0) {
+			ring = null;
+			mask = 0;
+			writer = null;
+			return;
+		}
+		final int size = Integer.highestOneBit(Math.max(bufferSize - 1, 1)) << 1;
+		ring = new Event[size];
+		for (int i = 0; i < size; i++) {
+			ring[i] = new Event(i);
+		}
+		mask = size - 1;
+		writer = new NamedThreadFactory("TinyURL-accesslog-").newThread(new Runnable() {
+			@Override
+			public void run() {
+				drain();
+			}
+		});
+		writer.start();
+	}
+
+	boolean isAsync() {
+		return (writer != null);
+	}
+
+	/**
+	 * Redirect found (IP and ID from MDC of caller)
+	 */
+	void found(final String key, final String url) {
+		if (!log.isInfoEnabled())
+			return;
+		if (ring == null) {
+			log.info("Found id=" + key + " url=" + url);
+			return;
+		}
+		while (true) {
+			final long pos = tail.get();
+			final Event e = ring[(int) (pos & mask)];
+			final long diff = e.sequence - pos;
+			if (diff < 0) { // Full (writer behind)
+				dropped.increment();
+				return;
+			}
+			if ((diff == 0) && tail.compareAndSet(pos, pos + 1)) {
+				e.ip = MDC.get(Constants.MDC_IP);
+				e.id = MDC.get(Constants.MDC_ID);
+				e.key = key;
+				e.url = url;
+				e.sequence = pos + 1; // Publish
+				if (idle) {
+					// Buffer was empty, wake up writer
+					idle = false;
+					LockSupport.unpark(writer);
+				}
+				return;
+			}
+		}
+	}
+
+	private void drain() {
+		while (true) {
+			final Event e = ring[(int) (head & mask)];
+			if (e.sequence != (head + 1)) {
+				if (!running && (tail.get() == head))
+					break;
+				// Flag before re-check: an event published after it sees the flag and unparks
+				idle = true;
+				if ((e.sequence != (head + 1)) && running) {
+					LockSupport.park(this);
+				}
+				idle = false;
+				continue;
+			}
+			try {
+				if (e.ip != null) {
+					MDC.put(Constants.MDC_IP, e.ip);
+				}
+				if (e.id != null) {
+					MDC.put(Constants.MDC_ID, e.id);
+				}
+				log.info("Found id=" + e.key + " url=" + e.url);
+			} catch (Throwable t) {
+				// Appender error, keep draining
+			} finally {
+				MDC.clear();
+				e.ip = e.id = null;
+				e.key = e.url = null;
+				e.sequence = head + ring.length; // Free for next lap
+				head++;
+			}
+		}
+	}
+
+	/**
+	 * Events dropped because buffer was full
+	 */
+	long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Stop writer thread after logging pending events
+	 */
+	void close() {
+		if (writer == null)
+			return;
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join(TimeUnit.SECONDS.toMillis(5));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Event {
+		volatile long sequence;
+		Object ip, id;
+		String key, url;
+
+		Event(final long sequence) {
+			this.sequence = sequence;
+		}
+	}
+}
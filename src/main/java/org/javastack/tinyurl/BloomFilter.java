@@ -0,0 +1,128 @@
+package org.javastack.tinyurl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Simple Bloom Filter for Strings (lock-free, thread-safe)
+ */
+public class BloomFilter {
+	private static final int MAGIC = 0x426C6D32; // "Blm2" (64 bit indexes, "Blom" files are rebuilt)
+	private final AtomicLongArray bits;
+	private final long numBits;
+	private final int numHashes;
+
+	public BloomFilter(final long expectedEntries, final double fpp) {
+		this(optimalNumBits(expectedEntries, fpp), //
+				optimalNumHashes(expectedEntries, optimalNumBits(expectedEntries, fpp)));
+	}
+
+	private BloomFilter(final long numBits, final int numHashes) {
+		final int words = (int) ((numBits + 63) >>> 6);
+		this.bits = new AtomicLongArray(words);
+		this.numBits = ((long) words << 6);
+		this.numHashes = numHashes;
+	}
+
+	// Double hashing in 64 bits: indexes cover all bits of filters bigger than 2^31 bits
+	public void add(final String key) {
+		final long h1 = hash64(key);
+		final long h2 = fmix64(h1 + 0x9e3779b97f4a7c15L);
+		long combined = h1;
+		for (int i = 0; i < numHashes; i++) {
+			combined += h2;
+			set((combined & Long.MAX_VALUE) % numBits);
+		}
+	}
+
+	public boolean mightContain(final String key) {
+		final long h1 = hash64(key);
+		final long h2 = fmix64(h1 + 0x9e3779b97f4a7c15L);
+		long combined = h1;
+		for (int i = 0; i < numHashes; i++) {
+			combined += h2;
+			if (!get((combined & Long.MAX_VALUE) % numBits)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public boolean isCompatible(final long expectedEntries, final double fpp) {
+		final long wanted = optimalNumBits(expectedEntries, fpp);
+		return (numBits == (((wanted + 63) >>> 6) << 6))
+				&& (numHashes == optimalNumHashes(expectedEntries, wanted));
+	}
+
+	public void writeTo(final DataOutputStream out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeLong(numBits);
+		out.writeInt(numHashes);
+		final int len = bits.length();
+		for (int i = 0; i < len; i++) {
+			out.writeLong(bits.get(i));
+		}
+	}
+
+	public static BloomFilter readFrom(final DataInputStream in) throws IOException {
+		if (in.readInt() != MAGIC)
+			throw new IOException("Invalid bloom filter (magic)");
+		final long numBits = in.readLong();
+		final int numHashes = in.readInt();
+		if ((numBits <= 0) || ((numBits & 63) != 0) || (numHashes <= 0))
+			throw new IOException("Invalid bloom filter (header)");
+		final BloomFilter bf = new BloomFilter(numBits, numHashes);
+		final int len = bf.bits.length();
+		for (int i = 0; i < len; i++) {
+			bf.bits.set(i, in.readLong());
+		}
+		return bf;
+	}
+
+	private final void set(final long index) {
+		final int word = (int) (index >>> 6);
+		final long mask = (1L << index);
+		while (true) {
+			final long old = bits.get(word);
+			if (((old & mask) != 0) || bits.compareAndSet(word, old, old | mask)) {
+				return;
+			}
+		}
+	}
+
+	private final boolean get(final long index) {
+		return ((bits.get((int) (index >>> 6)) & (1L << index)) != 0);
+	}
+
+	private static final long hash64(final String key) {
+		// FNV-1a 64 + final avalanche (MurmurHash3 fmix64)
+		long h = 0xcbf29ce484222325L;
+		final int len = key.length();
+		for (int i = 0; i < len; i++) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return fmix64(h);
+	}
+
+	private static final long fmix64(long h) {
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+	private static final long optimalNumBits(final long n, final double p) {
+		final long bits = (long) (-Math.max(n, 1) * Math.log(p) / (Math.log(2) * Math.log(2)));
+		// AtomicLongArray is int indexed
+		return Math.max(64, Math.min(bits, ((long) Integer.MAX_VALUE) << 6));
+	}
+
+	private static final int optimalNumHashes(final long n, final long m) {
+		return Math.max(1, (int) Math.round((double) m / Math.max(n, 1) * Math.log(2)));
+	}
+}
@@ -8,14 +8,38 @@ class Constants {
 	public static final int DEF_CONNECTION_TIMEOUT = 10000; // millis
 	public static final int DEF_READ_TIMEOUT = 30000; // millis
 	public static final int DEF_CHECK_CACHE_EXPIRE = 60000; // millis
+	public static final int DEF_CHECK_CACHE_SIZE = 10000;
 	public static final int DEF_WHITELIST_RELOAD = 10000; // millis
+	public static final int DEF_SHORTEN_THREADS = 32;
+	public static final int DEF_SHORTEN_QUEUE = 1000;
+	public static final int SHORTEN_TIMEOUT_MARGIN = 5000; // millis, async shorten over connection + read timeouts
+	public static final int DEF_BATCH_CHECK_THREADS = 8;
+	public static final int DEF_ACCESS_LOG_BUFFER = 8192; // events
 
 	public static final int MIN_URL_LENGTH = 12;
 	public static final int KEY_SPACE = 6;
 	public static final int MAX_COLLISION = 5;
-	
+	public static final int DEF_KEY_SEQUENCE_BLOCK = 1000;
+	public static final int BATCH_CHUNK = 1000; // items processed together in batch endpoints
+
+	// Storage
+	public static final int DEF_STORAGE_CACHE_ENTRIES = 10000;
+	public static final long DEF_STORAGE_CACHE_BYTES = 16 * 1024 * 1024;
+	public static final long DEF_BLOOM_EXPECTED = 1000000;
+	public static final double DEF_BLOOM_FPP = 0.01;
+	public static final int DEF_STREAM_MMAP_SEGMENT = 64 * 1024 * 1024;
+	public static final int DEF_GROUP_COMMIT_BATCH = 128;
+	public static final long DEF_GROUP_COMMIT_WAIT = 500; // micros
+	public static final int LOAD_SORT_ROWS = 200000; // rows sorted in memory (bigger input: sorted runs)
+	public static final int LOAD_BATCH = 10000; // rows per append + sync in load
+
 	// TinyQR
 	public static final int DEF_QR_SIZE_MIN = 50;
 	public static final int DEF_QR_SIZE_MAX = 1000;
 	public static final int DEF_QR_SIZE = 300;
+	public static final int DEF_QR_CACHE_ENTRIES = 10000;
+	public static final long DEF_QR_CACHE_BYTES = 32 * 1024 * 1024;
+	public static final int DEF_QR_MODULES_ENTRIES = 100000; // ~500 bytes each
+	public static final int DEF_QR_QUEUE = 100;
+	public static final int DEF_QR_MAX_AGE = 31536000; // seconds (1 year)
 }
@@ -0,0 +1,169 @@
+package org.javastack.tinyurl;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable domain matcher compiled from a list of domains (hash-per-suffix)
+ * <ul>
+ * <li><code>example.com</code>: match only <code>example.com</code></li>
+ * <li><code>.example.com</code>: match <code>example.com</code> and any subdomain
+ * (<code>www.example.com</code>, <code>a.b.example.com</code>)</li>
+ * </ul>
+ * Lookups hash every suffix of the host in one pass (right to left) and probe the table once per label, so
+ * cost depends on the number of labels of the host, not on the size of the list.
+ * <p>
+ * Memory compact: domains are stored in a single UTF-8 byte array, indexed by int arrays (no per-entry
+ * objects).
+ */
+public final class DomainMatcher {
+	private static final int FNV_OFFSET = 0x811C9DC5;
+	private static final int FNV_PRIME = 0x01000193;
+	private static final byte EXACT = 0x01;
+	private static final byte WILDCARD = 0x02;
+	private static final byte NON_ASCII = 0x04;
+
+	private final byte[] data; // UTF-8 domains
+	private final int[] offsets; // entry i is data[offsets[i]..offsets[i+1]]
+	private final int[] hashes; // per entry
+	private final byte[] flags; // per entry
+	private final int[] table; // open addressing, entry index + 1 (0 is empty)
+	private final int tableMask;
+
+	private DomainMatcher(final byte[] data, final int[] offsets, final int[] hashes, final byte[] flags,
+			final int[] table) {
+		this.data = data;
+		this.offsets = offsets;
+		this.hashes = hashes;
+		this.flags = flags;
+		this.table = table;
+		this.tableMask = table.length - 1;
+	}
+
+	/**
+	 * Compile list of domains (lowercase, trimmed, a leading dot matches subdomains)
+	 */
+	public static DomainMatcher compile(final Collection<String> domains) {
+		// Merge duplicates (same domain can be exact and wildcard)
+		final Map<String, Byte> entries = new HashMap<String, Byte>(domains.size() * 4 / 3 + 1);
+		for (final String d : domains) {
+			final boolean wildcard = (!d.isEmpty() && (d.charAt(0) == '.'));
+			final String key = (wildcard ? d.substring(1) : d);
+			final Byte old = entries.get(key);
+			final int f = ((old == null) ? 0 : old.intValue()) | (wildcard ? WILDCARD : EXACT);
+			entries.put(key, Byte.valueOf((byte) f));
+		}
+		final int count = entries.size();
+		final byte[][] encoded = new byte[count][];
+		final int[] offsets = new int[count + 1];
+		final int[] hashes = new int[count];
+		final byte[] flags = new byte[count];
+		int capacity = 2;
+		while (capacity < (((long) count * 4 / 3) + 1)) {
+			capacity <<= 1;
+		}
+		final int[] table = new int[capacity];
+		final int mask = capacity - 1;
+		int i = 0, total = 0;
+		for (final Map.Entry<String, Byte> e : entries.entrySet()) {
+			final String key = e.getKey();
+			final byte[] b = key.getBytes(StandardCharsets.UTF_8);
+			encoded[i] = b;
+			offsets[i] = total;
+			total += b.length;
+			hashes[i] = hash(key, 0, key.length());
+			flags[i] = (byte) (e.getValue().intValue() | ((b.length != key.length()) ? NON_ASCII : 0));
+			int slot = mix(hashes[i]) & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = i + 1;
+			i++;
+		}
+		offsets[count] = total;
+		final byte[] data = new byte[total];
+		for (i = 0; i < count; i++) {
+			System.arraycopy(encoded[i], 0, data, offsets[i], encoded[i].length);
+		}
+		return new DomainMatcher(data, offsets, hashes, flags, table);
+	}
+
+	/**
+	 * Check if domain (lowercase, trimmed) is matched
+	 */
+	public boolean matches(final String domain) {
+		final int end = domain.length();
+		// Suffix hashes computed right to left, probe when next char is a label separator
+		int h = FNV_OFFSET;
+		for (int i = end - 1; i >= 0; i--) {
+			final char c = domain.charAt(i);
+			if ((c == '.') && (find(h, domain, i + 1, end, WILDCARD) >= 0)) {
+				return true;
+			}
+			h = (h ^ c) * FNV_PRIME;
+		}
+		return (find(h, domain, 0, end, (byte) (EXACT | WILDCARD)) >= 0);
+	}
+
+	/**
+	 * Number of distinct domains
+	 */
+	public int size() {
+		return hashes.length;
+	}
+
+	/**
+	 * Approximate memory used by arrays (bytes)
+	 */
+	public long memoryUsage() {
+		return data.length + (offsets.length * 4L) + (hashes.length * 4L) + flags.length + (table.length * 4L);
+	}
+
+	private final int find(final int hash, final String domain, final int start, final int end,
+			final byte mode) {
+		int slot = mix(hash) & tableMask;
+		int id;
+		while ((id = table[slot]) != 0) {
+			id--;
+			if ((hashes[id] == hash) && ((flags[id] & mode) != 0) && equalsAt(id, domain, start, end)) {
+				return id;
+			}
+			slot = (slot + 1) & tableMask;
+		}
+		return -1;
+	}
+
+	private final boolean equalsAt(final int id, final String domain, final int start, final int end) {
+		final int off = offsets[id];
+		final int len = offsets[id + 1] - off;
+		if ((flags[id] & NON_ASCII) != 0) {
+			// Rare: internationalized domain stored in UTF-8
+			final String d = new String(data, off, len, StandardCharsets.UTF_8);
+			return (d.length() == (end - start)) && domain.regionMatches(start, d, 0, d.length());
+		}
+		if (len != (end - start))
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (data[off + i] != domain.charAt(start + i))
+				return false;
+		}
+		return true;
+	}
+
+	private static final int hash(final String s, final int start, final int end) {
+		int h = FNV_OFFSET;
+		for (int i = end - 1; i >= start; i--) {
+			h = (h ^ s.charAt(i)) * FNV_PRIME;
+		}
+		return h;
+	}
+
+	private static final int mix(int h) {
+		h ^= (h >>> 16);
+		h *= 0x85EBCA6B;
+		h ^= (h >>> 13);
+		return h;
+	}
+}
@@ -0,0 +1,140 @@
+package org.javastack.tinyurl;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader of CSV in {@link Persistence#dump(java.io.OutputStream)} format (header, token, url and optional
+ * creation timestamp).
+ * <p>
+ * URLs are not quoted in dumps, so url is all between first comma and the trailing fields of header.
+ * <p>
+ * Tokens can have any length up to the key limit of the storage (other storages, other key strategies), a
+ * longer token fails the load (rows before are already read) instead of being skipped.
+ */
+public final class DumpReader implements Closeable {
+	private final BufferedReader in;
+	private final int maxToken;
+	private int fields = -1;
+	private long lines = 0;
+	private long invalid = 0;
+	private String token = null;
+	private String url = null;
+	private int timestamp = 0;
+
+	public DumpReader(final InputStream in) {
+		this(in, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxToken max token length of storage
+	 */
+	public DumpReader(final InputStream in, final int maxToken) {
+		this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.ISO_8859_1), 0x10000);
+		this.maxToken = maxToken;
+	}
+
+	/**
+	 * Advance to next valid row (invalid rows are counted and skipped)
+	 *
+	 * @return false on end of input
+	 * @throws IOException on invalid header or token longer than storage limit
+	 */
+	public boolean next() throws IOException {
+		String line;
+		while ((line = in.readLine()) != null) {
+			lines++;
+			if (fields < 0) {
+				fields = count(line, ',') + 1;
+				if (fields < 2)
+					throw new IOException("Invalid header: " + line);
+				continue;
+			}
+			if (line.isEmpty())
+				continue;
+			if (parse(line))
+				return true;
+			invalid++;
+		}
+		return false;
+	}
+
+	private final boolean parse(final String line) throws IOException {
+		final int first = line.indexOf(',');
+		if (first <= 0)
+			return false;
+		if (first > maxToken)
+			throw new IOException("Token longer than " + maxToken + " chars at line " + lines + ": "
+					+ line.substring(0, first));
+		// Trailing fields (after url)
+		int end = line.length();
+		for (int i = 2; i < fields; i++) {
+			end = line.lastIndexOf(',', end - 1);
+			if (end <= first)
+				return false;
+		}
+		if (end <= (first + 1))
+			return false;
+		token = line.substring(0, first);
+		url = line.substring(first + 1, end);
+		timestamp = 0;
+		if (fields > 2) {
+			final int next = line.indexOf(',', end + 1);
+			try {
+				timestamp = Integer.parseInt(line.substring(end + 1, (next < 0) ? line.length() : next));
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		if (timestamp <= 0) {
+			timestamp = (int) (System.currentTimeMillis() / 1000);
+		}
+		return true;
+	}
+
+	private static final int count(final String s, final char c) {
+		int n = 0;
+		for (int i = s.indexOf(c); i >= 0; i = s.indexOf(c, i + 1)) {
+			n++;
+		}
+		return n;
+	}
+
+	public String getToken() {
+		return token;
+	}
+
+	public String getURL() {
+		return url;
+	}
+
+	/**
+	 * Creation (unix epoch seconds), current time if not in dump
+	 */
+	public int getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Number of lines read (including header)
+	 */
+	public long getLines() {
+		return lines;
+	}
+
+	/**
+	 * Number of invalid rows skipped
+	 */
+	public long getInvalid() {
+		return invalid;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
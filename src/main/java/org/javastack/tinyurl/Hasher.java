@@ -1,24 +1,240 @@
 package org.javastack.tinyurl;
 
-import java.nio.charset.Charset;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-import org.javastack.packer.Base64;
-
+/**
+ * Generate Keys from URL (lock-free, without per-call garbage except resulting key)
+ * <ul>
+ * <li>MD5: first bits of MD5 digest of URL (ISO-8859-1), same keys as URL-safe Base64 of digest</li>
+ * <li>MURMUR3: first bits of MurmurHash3 (x64, 128 bits) of URL (ISO-8859-1), non-cryptographic</li>
+ * </ul>
+ */
 public class Hasher {
-	private static final Charset iso = Charset.forName("ISO-8859-1");
-	private final MessageDigest md;
+	public static final String MD5 = "MD5";
+	public static final String MURMUR3 = "MURMUR3";
+	static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_"
+			.toCharArray();
+	private final boolean murmur;
+	private final ThreadLocal<State> state;
 
 	public Hasher() throws NoSuchAlgorithmException {
-		md = MessageDigest.getInstance("MD5");
+		this(MD5);
+	}
+
+	public Hasher(final String algorithm) throws NoSuchAlgorithmException {
+		final String alg = algorithm.trim().toUpperCase();
+		if (MD5.equals(alg)) {
+			murmur = false;
+			MessageDigest.getInstance(MD5); // check availability
+		} else if (MURMUR3.equals(alg)) {
+			murmur = true;
+		} else {
+			throw new NoSuchAlgorithmException("Invalid hash algorithm: " + algorithm);
+		}
+		state = new ThreadLocal<State>() {
+			@Override
+			protected State initialValue() {
+				return new State(murmur);
+			}
+		};
 	}
 
 	public String hashURL(final String url) {
-		byte[] b = url.getBytes(iso);
-		synchronized (md) {
-			b = md.digest(b);
+		return hashURL(url, 0);
+	}
+
+	/**
+	 * Hash of URL for a collision round, same as <code>hashURL(collision + ":" + url)</code> (for collision
+	 * greater than zero)
+	 */
+	public String hashURL(final String url, final int collision) {
+		final State s = state.get();
+		int len = 0;
+		if (collision > 0) {
+			final String prefix = Integer.toString(collision);
+			len = s.append(prefix, len);
+			len = s.append(':', len);
+		}
+		len = s.append(url, len);
+		final long bits = (murmur ? murmur3(s.in, len) : md5(s, len));
+		return encode(s, bits);
+	}
+
+	private static final long md5(final State s, final int len) {
+		s.md.update(s.in, 0, len);
+		try {
+			s.md.digest(s.out, 0, s.out.length);
+		} catch (DigestException e) {
+			throw new IllegalStateException(e);
+		}
+		final byte[] b = s.out;
+		return ((b[0] & 0xFFL) << 56) | ((b[1] & 0xFFL) << 48) | ((b[2] & 0xFFL) << 40)
+				| ((b[3] & 0xFFL) << 32) | ((b[4] & 0xFFL) << 24) | ((b[5] & 0xFFL) << 16)
+				| ((b[6] & 0xFFL) << 8) | (b[7] & 0xFFL);
+	}
+
+	/**
+	 * Encode leading bits (msb first) in URL-safe Base64 alphabet
+	 */
+	private static final String encode(final State s, final long bits) {
+		final char[] key = s.key;
+		for (int i = 0; i < key.length; i++) {
+			key[i] = ALPHABET[(int) ((bits >>> (64 - 6 - (i * 6))) & 0x3F)];
+		}
+		return new String(key);
+	}
+
+	/**
+	 * MurmurHash3 x64 128 bits (seed 0), returns first 64 bits
+	 */
+	private static final long murmur3(final byte[] data, final int len) {
+		final long c1 = 0x87c37b91114253d5L;
+		final long c2 = 0x4cf5ad432745937fL;
+		long h1 = 0, h2 = 0;
+		final int nblocks = len >>> 4;
+		for (int i = 0; i < nblocks; i++) {
+			final int o = i << 4;
+			long k1 = getLongLE(data, o);
+			long k2 = getLongLE(data, o + 8);
+			k1 *= c1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= c2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			k2 *= c2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= c1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+		final int tail = nblocks << 4;
+		long k1 = 0, k2 = 0;
+		switch (len & 15) {
+			case 15:
+				k2 ^= (data[tail + 14] & 0xFFL) << 48;
+			case 14:
+				k2 ^= (data[tail + 13] & 0xFFL) << 40;
+			case 13:
+				k2 ^= (data[tail + 12] & 0xFFL) << 32;
+			case 12:
+				k2 ^= (data[tail + 11] & 0xFFL) << 24;
+			case 11:
+				k2 ^= (data[tail + 10] & 0xFFL) << 16;
+			case 10:
+				k2 ^= (data[tail + 9] & 0xFFL) << 8;
+			case 9:
+				k2 ^= (data[tail + 8] & 0xFFL);
+				k2 *= c2;
+				k2 = Long.rotateLeft(k2, 33);
+				k2 *= c1;
+				h2 ^= k2;
+			case 8:
+				k1 ^= (data[tail + 7] & 0xFFL) << 56;
+			case 7:
+				k1 ^= (data[tail + 6] & 0xFFL) << 48;
+			case 6:
+				k1 ^= (data[tail + 5] & 0xFFL) << 40;
+			case 5:
+				k1 ^= (data[tail + 4] & 0xFFL) << 32;
+			case 4:
+				k1 ^= (data[tail + 3] & 0xFFL) << 24;
+			case 3:
+				k1 ^= (data[tail + 2] & 0xFFL) << 16;
+			case 2:
+				k1 ^= (data[tail + 1] & 0xFFL) << 8;
+			case 1:
+				k1 ^= (data[tail] & 0xFFL);
+				k1 *= c1;
+				k1 = Long.rotateLeft(k1, 31);
+				k1 *= c2;
+				h1 ^= k1;
+		}
+		h1 ^= len;
+		h2 ^= len;
+		h1 += h2;
+		h2 += h1;
+		h1 = fmix64(h1);
+		h2 = fmix64(h2);
+		h1 += h2;
+		return h1;
+	}
+
+	private static final long getLongLE(final byte[] b, final int o) {
+		return (b[o] & 0xFFL) | ((b[o + 1] & 0xFFL) << 8) | ((b[o + 2] & 0xFFL) << 16)
+				| ((b[o + 3] & 0xFFL) << 24) | ((b[o + 4] & 0xFFL) << 32) | ((b[o + 5] & 0xFFL) << 40)
+				| ((b[o + 6] & 0xFFL) << 48) | ((b[o + 7] & 0xFFL) << 56);
+	}
+
+	private static final long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	/**
+	 * Per-thread buffers and digest
+	 */
+	private static final class State {
+		final MessageDigest md;
+		final byte[] out = new byte[16];
+		final char[] key = new char[Constants.KEY_SPACE];
+		byte[] in = new byte[1024];
+
+		State(final boolean murmur) {
+			try {
+				md = (murmur ? null : MessageDigest.getInstance(MD5));
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Append string encoded in ISO-8859-1 (unmappable chars as '?', like String.getBytes)
+		 */
+		int append(final String str, int pos) {
+			final int len = str.length();
+			ensure(pos + len);
+			final byte[] b = in;
+			for (int i = 0; i < len; i++) {
+				final char c = str.charAt(i);
+				if (c <= 0xFF) {
+					b[pos++] = (byte) c;
+				} else {
+					if (Character.isHighSurrogate(c) && ((i + 1) < len)
+							&& Character.isLowSurrogate(str.charAt(i + 1))) {
+						i++; // one code point, one replacement
+					}
+					b[pos++] = '?';
+				}
+			}
+			return pos;
+		}
+
+		int append(final char c, final int pos) {
+			ensure(pos + 1);
+			in[pos] = (byte) c;
+			return pos + 1;
+		}
+
+		private final void ensure(final int len) {
+			if (len > in.length) {
+				int n = in.length;
+				while (n < len) {
+					n <<= 1;
+				}
+				final byte[] nb = new byte[n];
+				System.arraycopy(in, 0, nb, 0, in.length);
+				in = nb;
+			}
 		}
-		return new String(Base64.encode(b, true), iso).substring(0, Constants.KEY_SPACE);
 	}
 }
@@ -0,0 +1,88 @@
+package org.javastack.tinyurl;
+
+import java.io.IOException;
+
+/**
+ * Collision-free Keys from a monotonic counter, leased in blocks from Persistence (each node hands out keys
+ * from memory without coordination).
+ * <p>
+ * Counter is limited to the bits that fit in KEY_SPACE (6 bits per char), and optionally permuted with a
+ * keyed bijection (Feistel network) so keys don't look sequential.
+ */
+public class KeySequence {
+	public static final int KEY_BITS = Constants.KEY_SPACE * 6;
+	public static final long MAX_VALUE = (1L << KEY_BITS) - 1;
+	private static final int HALF_BITS = KEY_BITS / 2;
+	private static final long HALF_MASK = (1L << HALF_BITS) - 1;
+	private static final int ROUNDS = 4;
+
+	private final Persistence store;
+	private final int blockSize;
+	private final long[] roundKeys;
+	private long next = 0, end = 0;
+
+	/**
+	 * @param store source of leased blocks
+	 * @param blockSize number of keys leased on each request to store
+	 * @param permute scramble keys
+	 * @param secret key of permutation (same secret, same keys)
+	 */
+	public KeySequence(final Persistence store, final int blockSize, final boolean permute, final long secret) {
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("Invalid blockSize: " + blockSize);
+		this.store = store;
+		this.blockSize = blockSize;
+		if (permute) {
+			roundKeys = new long[ROUNDS];
+			long k = secret ^ 0x9E3779B97F4A7C15L;
+			for (int i = 0; i < ROUNDS; i++) {
+				k = mix64(k + 0x9E3779B97F4A7C15L);
+				roundKeys[i] = k;
+			}
+		} else {
+			roundKeys = null;
+		}
+	}
+
+	public String nextKey() throws IOException {
+		final long value = nextValue();
+		if (value > MAX_VALUE) {
+			throw new IOException("Key sequence exhausted: " + value);
+		}
+		return encode(roundKeys == null ? value : permute(value));
+	}
+
+	private synchronized long nextValue() throws IOException {
+		if (next >= end) {
+			final long first = store.leaseSequence(blockSize);
+			next = first;
+			end = first + blockSize;
+		}
+		return next++;
+	}
+
+	final long permute(final long value) {
+		long l = (value >>> HALF_BITS) & HALF_MASK;
+		long r = value & HALF_MASK;
+		for (int i = 0; i < ROUNDS; i++) {
+			final long t = r;
+			r = l ^ (mix64(r ^ roundKeys[i]) & HALF_MASK);
+			l = t;
+		}
+		return (l << HALF_BITS) | r;
+	}
+
+	private static final String encode(final long value) {
+		final char[] key = new char[Constants.KEY_SPACE];
+		for (int i = key.length - 1, shift = 0; i >= 0; i--, shift += 6) {
+			key[i] = Hasher.ALPHABET[(int) ((value >>> shift) & 0x3F)];
+		}
+		return new String(key);
+	}
+
+	private static final long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
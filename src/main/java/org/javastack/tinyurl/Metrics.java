@@ -0,0 +1,318 @@
+package org.javastack.tinyurl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of process metrics, exposed in Prometheus text format by {@link TinyMetrics}.
+ * <p>
+ * Series are registered once (labels preformatted), updates are lock-free and allocation-free
+ * ({@link LongAdder} counters and pre-bucketed histograms). Registering same name and labels again returns the
+ * existing series (callbacks are replaced).
+ */
+public final class Metrics {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	/**
+	 * Latency buckets (seconds)
+	 */
+	private static final String[] LATENCY_BUCKETS = {
+			"0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10"
+	};
+	private static final LinkedHashMap<String, Family> families = new LinkedHashMap<String, Family>();
+
+	private Metrics() {
+	}
+
+	/**
+	 * Get or register counter
+	 *
+	 * @param labels pairs of name and value
+	 */
+	public static Counter counter(final String name, final String help, final String... labels) {
+		return (Counter) register(name, help, "counter", labels, new Counter());
+	}
+
+	/**
+	 * Get or register latency histogram
+	 *
+	 * @param labels pairs of name and value
+	 */
+	public static Histogram histogram(final String name, final String help, final String... labels) {
+		return (Histogram) register(name, help, "histogram", labels, new Histogram());
+	}
+
+	/**
+	 * Register counter read from other component (like cache stats)
+	 *
+	 * @param labels pairs of name and value
+	 */
+	public static void counter(final String name, final String help, final LongSupplier value,
+			final String... labels) {
+		register(name, help, "counter", labels, new LongCallback(value));
+	}
+
+	/**
+	 * Register gauge read from other component
+	 *
+	 * @param labels pairs of name and value
+	 */
+	public static void gauge(final String name, final String help, final DoubleSupplier value,
+			final String... labels) {
+		register(name, help, "gauge", labels, new DoubleCallback(value));
+	}
+
+	/**
+	 * Get or register request latency histogram of endpoint
+	 */
+	public static Histogram request(final String endpoint) {
+		return histogram("tinyurl_request_duration_seconds", "Request latency by endpoint", "endpoint", endpoint);
+	}
+
+	/**
+	 * Register stats of cache (hits, misses, evictions and entries)
+	 */
+	public static void cache(final String cacheName, final TinyLFUCache<?, ?> cache) {
+		counter("tinyurl_cache_hits_total", "Cache hits", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return cache.getHits();
+			}
+		}, "cache", cacheName);
+		counter("tinyurl_cache_misses_total", "Cache misses", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return cache.getMisses();
+			}
+		}, "cache", cacheName);
+		counter("tinyurl_cache_evictions_total", "Cache evictions", new LongSupplier() {
+			@Override
+			public long getAsLong() {
+				return cache.getEvictions();
+			}
+		}, "cache", cacheName);
+		gauge("tinyurl_cache_entries", "Cache entries", new DoubleSupplier() {
+			@Override
+			public double getAsDouble() {
+				return cache.size();
+			}
+		}, "cache", cacheName);
+	}
+
+	private static Series register(final String name, final String help, final String type,
+			final String[] labels, final Series series) {
+		final String labelSet = formatLabels(labels);
+		synchronized (families) {
+			Family family = families.get(name);
+			if (family == null) {
+				family = new Family(name, help, type);
+				families.put(name, family);
+			} else if (!family.type.equals(type)) {
+				throw new IllegalArgumentException("Metric " + name + " is " + family.type);
+			}
+			final Series old = family.series.get(labelSet);
+			if ((old != null) && !(series instanceof Callback))
+				return old;
+			family.series.put(labelSet, series);
+			return series;
+		}
+	}
+
+	private static String formatLabels(final String[] labels) {
+		if ((labels.length & 1) != 0)
+			throw new IllegalArgumentException("Labels must be pairs of name and value");
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (sb.length() > 0) {
+				sb.append(',');
+			}
+			sb.append(labels[i]).append("=\"");
+			final String value = labels[i + 1];
+			for (int j = 0; j < value.length(); j++) {
+				final char c = value.charAt(j);
+				if ((c == '\\') || (c == '"')) {
+					sb.append('\\').append(c);
+				} else if (c == '\n') {
+					sb.append("\\n");
+				} else {
+					sb.append(c);
+				}
+			}
+			sb.append('"');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Write all metrics in Prometheus text format
+	 */
+	public static void write(final Writer out) throws IOException {
+		final List<Family> snapshot = new ArrayList<Family>();
+		synchronized (families) {
+			for (final Family family : families.values()) {
+				snapshot.add(family.copy());
+			}
+		}
+		final StringBuilder sb = new StringBuilder(256);
+		for (final Family family : snapshot) {
+			sb.setLength(0);
+			sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+			sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+			for (final Map.Entry<String, Series> e : family.series.entrySet()) {
+				e.getValue().write(sb, family.name, e.getKey());
+			}
+			out.write(sb.toString());
+		}
+	}
+
+	private static void sample(final StringBuilder sb, final String name, final String suffix,
+			final String labels, final String extra, final String value) {
+		sb.append(name).append(suffix);
+		if (!labels.isEmpty() || (extra != null)) {
+			sb.append('{').append(labels);
+			if (extra != null) {
+				if (!labels.isEmpty()) {
+					sb.append(',');
+				}
+				sb.append(extra);
+			}
+			sb.append('}');
+		}
+		sb.append(' ').append(value).append('\n');
+	}
+
+	private static final class Family {
+		final String name;
+		final String help;
+		final String type;
+		final LinkedHashMap<String, Series> series = new LinkedHashMap<String, Series>();
+
+		Family(final String name, final String help, final String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+
+		Family copy() {
+			final Family copy = new Family(name, help, type);
+			copy.series.putAll(series);
+			return copy;
+		}
+	}
+
+	private static abstract class Series {
+		abstract void write(final StringBuilder sb, final String name, final String labels);
+	}
+
+	private static abstract class Callback extends Series {
+	}
+
+	public static final class Counter extends Series {
+		private final LongAdder value = new LongAdder();
+
+		Counter() {
+		}
+
+		public void increment() {
+			value.increment();
+		}
+
+		public void add(final long n) {
+			value.add(n);
+		}
+
+		public long get() {
+			return value.sum();
+		}
+
+		@Override
+		void write(final StringBuilder sb, final String name, final String labels) {
+			sample(sb, name, "", labels, null, String.valueOf(value.sum()));
+		}
+	}
+
+	/**
+	 * Latency histogram with fixed buckets, observed in nanos and exposed in seconds
+	 */
+	public static final class Histogram extends Series {
+		private final long[] bounds = new long[LATENCY_BUCKETS.length]; // nanos
+		private final LongAdder[] buckets = new LongAdder[LATENCY_BUCKETS.length + 1]; // last is +Inf
+		private final LongAdder sum = new LongAdder(); // nanos
+
+		Histogram() {
+			for (int i = 0; i < bounds.length; i++) {
+				bounds[i] = (long) (Double.parseDouble(LATENCY_BUCKETS[i]) * 1e9);
+			}
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		/**
+		 * Observe elapsed time
+		 *
+		 * @param nanos duration in nanoseconds
+		 */
+		public void observe(final long nanos) {
+			int i = 0;
+			while ((i < bounds.length) && (nanos > bounds[i])) {
+				i++;
+			}
+			buckets[i].increment();
+			sum.add(nanos);
+		}
+
+		/**
+		 * Observe elapsed time since begin
+		 *
+		 * @param begin value of {@link System#nanoTime()}
+		 */
+		public void observeSince(final long begin) {
+			observe(System.nanoTime() - begin);
+		}
+
+		@Override
+		void write(final StringBuilder sb, final String name, final String labels) {
+			long count = 0;
+			for (int i = 0; i < buckets.length; i++) {
+				count += buckets[i].sum();
+				final String le = (i < LATENCY_BUCKETS.length ? LATENCY_BUCKETS[i] : "+Inf");
+				sample(sb, name, "_bucket", labels, "le=\"" + le + "\"", String.valueOf(count));
+			}
+			sample(sb, name, "_sum", labels, null, String.valueOf(sum.sum() / 1e9));
+			sample(sb, name, "_count", labels, null, String.valueOf(count));
+		}
+	}
+
+	private static final class LongCallback extends Callback {
+		private final LongSupplier value;
+
+		LongCallback(final LongSupplier value) {
+			this.value = value;
+		}
+
+		@Override
+		void write(final StringBuilder sb, final String name, final String labels) {
+			sample(sb, name, "", labels, null, String.valueOf(value.getAsLong()));
+		}
+	}
+
+	private static final class DoubleCallback extends Callback {
+		private final DoubleSupplier value;
+
+		DoubleCallback(final DoubleSupplier value) {
+			this.value = value;
+		}
+
+		@Override
+		void write(final StringBuilder sb, final String name, final String labels) {
+			sample(sb, name, "", labels, null, String.valueOf(value.getAsDouble()));
+		}
+	}
+}
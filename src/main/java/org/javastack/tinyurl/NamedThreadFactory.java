@@ -0,0 +1,23 @@
+package org.javastack.tinyurl;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Daemon threads named with prefix and sequence number
+ */
+final class NamedThreadFactory implements ThreadFactory {
+	private final AtomicInteger counter = new AtomicInteger();
+	private final String prefix;
+
+	NamedThreadFactory(final String prefix) {
+		this.prefix = prefix;
+	}
+
+	@Override
+	public Thread newThread(final Runnable r) {
+		final Thread t = new Thread(r, prefix + counter.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	}
+}
@@ -2,7 +2,11 @@ package org.javastack.tinyurl;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.javastack.stringproperties.StringProperties;
 
@@ -35,6 +39,42 @@ public interface Persistence extends Closeable {
 	 */
 	public void put(final String key, final String url) throws IOException;
 
+	/**
+	 * Put Key and Url in Storage only if Key is not already stored (atomic in bundled storages, default is
+	 * {@link #get(String)} and {@link #put(String, String)}, not atomic)
+	 * 
+	 * @param key primary and unique for search
+	 * @param url data to store
+	 * @return null if stored, or existing data (same url: duplicate, other url: collision)
+	 * @throws IOException
+	 */
+	public default TinyData putIfAbsent(final String key, final String url) throws IOException {
+		final TinyData meta = get(key);
+		if (meta != null)
+			return meta;
+		put(key, url);
+		return null;
+	}
+
+	/**
+	 * Put Keys and Urls in Storage, only keys not already stored (like {@link #putIfAbsent(String, String)})
+	 * 
+	 * @param mappings keys and urls
+	 * @return existing data of keys stored with other url (collisions), keys stored with same url are not
+	 *         returned
+	 * @throws IOException
+	 */
+	public default Map<String, TinyData> putAll(final Map<String, String> mappings) throws IOException {
+		final HashMap<String, TinyData> collisions = new HashMap<String, TinyData>();
+		for (final Map.Entry<String, String> e : mappings.entrySet()) {
+			final TinyData meta = putIfAbsent(e.getKey(), e.getValue());
+			if ((meta != null) && !e.getValue().equals(meta.getURL())) {
+				collisions.put(e.getKey(), meta);
+			}
+		}
+		return collisions;
+	}
+
 	/**
 	 * Get Url from Storage, key is user for search
 	 * 
@@ -44,6 +84,24 @@ public interface Persistence extends Closeable {
 	 */
 	public TinyData get(final String key) throws IOException;
 
+	/**
+	 * Get Urls from Storage for a batch of keys
+	 * 
+	 * @param keys primary and unique
+	 * @return found keys and data (not found keys are not in map)
+	 * @throws IOException
+	 */
+	public default Map<String, TinyData> getAll(final Collection<String> keys) throws IOException {
+		final HashMap<String, TinyData> found = new HashMap<String, TinyData>();
+		for (final String key : keys) {
+			final TinyData meta = get(key);
+			if (meta != null) {
+				found.put(key, meta);
+			}
+		}
+		return found;
+	}
+
 	/**
 	 * Remote Key from Storage
 	 * 
@@ -52,6 +110,19 @@ public interface Persistence extends Closeable {
 	 */
 	public void remove(final String key) throws IOException;
 
+	/**
+	 * Lease a block of sequence numbers, unique for all users of this Storage (only used with
+	 * <code>key.strategy=SEQUENCE</code>)
+	 * 
+	 * @param size number of values in block
+	 * @return first value of block, leased values are [first, first + size)
+	 * @throws IOException
+	 * @throws UnsupportedOperationException if Storage has no sequence (default)
+	 */
+	public default long leaseSequence(final int size) throws IOException {
+		throw new UnsupportedOperationException("Sequence not supported by " + getClass().getName());
+	}
+
 	/**
 	 * Dump storage in (<a href="https://tools.ietf.org/html/rfc4180#page-2">RFC-4180</a> type 3) CSV format.
 	 * <ul>
@@ -69,4 +140,47 @@ public interface Persistence extends Closeable {
 	 * @throws IOException
 	 */
 	public void dump(final OutputStream out) throws IOException;
+
+	/**
+	 * Incremental dump, like {@link #dump(OutputStream)} only rows stored since a time, with an extra
+	 * <code>cursor</code> field per row, to resume an interrupted export after last received row.
+	 * <p>
+	 * Time is when the row was stored in this Storage ({@link #put(String, String)}, a replace, or
+	 * {@link #load(InputStream)}), not the creation field of the row: rows loaded from a dump are in incremental
+	 * dumps since the load, with their original creation.
+	 * 
+	 * @param out
+	 * @param since unix epoch seconds of time stored (0: all)
+	 * @param cursor value from last received row, or null
+	 * @throws IOException
+	 * @throws IllegalArgumentException if cursor is invalid
+	 * @throws UnsupportedOperationException if Storage has no incremental dump (default)
+	 */
+	public default void dump(final OutputStream out, final long since, final String cursor) throws IOException {
+		throw new UnsupportedOperationException("Incremental dump not supported by " + getClass().getName());
+	}
+
+	/**
+	 * Load storage from CSV in {@link #dump(OutputStream)} format (bulk import), keys already stored are
+	 * skipped (like {@link #putIfAbsent(String, String)}). Default is a {@link #putIfAbsent(String, String)}
+	 * per row (creation timestamps of dump are not kept).
+	 * 
+	 * @param in CSV with header
+	 * @return number of rows loaded
+	 * @throws IOException
+	 */
+	public default long load(final InputStream in) throws IOException {
+		final DumpReader reader = new DumpReader(in);
+		long stored = 0;
+		try {
+			while (reader.next()) {
+				if (putIfAbsent(reader.getToken(), reader.getURL()) == null) {
+					stored++;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return stored;
+	}
 }
\ No newline at end of file
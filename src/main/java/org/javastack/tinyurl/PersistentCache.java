@@ -0,0 +1,208 @@
+package org.javastack.tinyurl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+import org.javastack.stringproperties.StringProperties;
+
+/**
+ * Read-through cache in front of other Persistence (write-through invalidation)
+ * <p>
+ * Invalidations bump a striped epoch of key, a read-through that raced with one removes what it cached (no stale
+ * mapping survives a concurrent write).
+ */
+public class PersistentCache implements Persistence {
+	private static final Logger log = Logger.getLogger(PersistentCache.class);
+	private static final int ENTRY_OVERHEAD = 96; // bytes (aprox: node, strings, holder)
+	private static final int EPOCH_STRIPES = 1024; // power of 2
+	private final AtomicLongArray epochs = new AtomicLongArray(EPOCH_STRIPES);
+	private final Persistence store;
+	private int maxEntries = Constants.DEF_STORAGE_CACHE_ENTRIES;
+	private long maxBytes = Constants.DEF_STORAGE_CACHE_BYTES;
+	private TinyLFUCache<String, TinyData> cache = null;
+
+	public PersistentCache(final Persistence store) {
+		this.store = store;
+	}
+
+	@Override
+	public void configure(final StringProperties properties) {
+		maxEntries = parseInt(properties.getProperty("cache.entries"), maxEntries);
+		maxBytes = parseLong(properties.getProperty("cache.bytes"), maxBytes);
+		log.info("Storage cache config={entries=" + maxEntries + " bytes=" + maxBytes + "}");
+		store.configure(properties);
+	}
+
+	@Override
+	public void open() throws IOException {
+		cache = new TinyLFUCache<String, TinyData>(maxEntries, maxBytes,
+				new TinyLFUCache.Weigher<String, TinyData>() {
+					@Override
+					public int weigh(final String key, final TinyData value) {
+						final String url = value.getURL();
+						return ENTRY_OVERHEAD + ((key.length() + (url == null ? 0 : url.length())) << 1);
+					}
+				});
+		store.open();
+	}
+
+	@Override
+	public void close() {
+		if (cache != null) {
+			log.info("Storage cache stats={" + cache + "}");
+			cache.clear();
+		}
+		store.close();
+	}
+
+	@Override
+	public void put(final String key, final String url) throws IOException {
+		try {
+			store.put(key, url);
+		} finally {
+			invalidate(key);
+		}
+	}
+
+	@Override
+	public TinyData putIfAbsent(final String key, final String url) throws IOException {
+		try {
+			return store.putIfAbsent(key, url);
+		} finally {
+			invalidate(key);
+		}
+	}
+
+	@Override
+	public Map<String, TinyData> putAll(final Map<String, String> mappings) throws IOException {
+		try {
+			return store.putAll(mappings);
+		} finally {
+			for (final String key : mappings.keySet()) {
+				invalidate(key);
+			}
+		}
+	}
+
+	@Override
+	public Map<String, TinyData> getAll(final Collection<String> keys) throws IOException {
+		final HashMap<String, TinyData> found = new HashMap<String, TinyData>();
+		final ArrayList<String> misses = new ArrayList<String>();
+		for (final String key : keys) {
+			final TinyData data = cache.get(key);
+			if (data != null) {
+				found.put(key, data);
+			} else {
+				misses.add(key);
+			}
+		}
+		if (!misses.isEmpty()) {
+			final long[] before = new long[misses.size()];
+			for (int i = 0; i < before.length; i++) {
+				before[i] = epoch(misses.get(i));
+			}
+			final Map<String, TinyData> loaded = store.getAll(misses);
+			for (int i = 0; i < before.length; i++) {
+				final String key = misses.get(i);
+				final TinyData data = loaded.get(key);
+				if (data != null) {
+					populate(key, data, before[i]);
+					found.put(key, data);
+				}
+			}
+		}
+		return found;
+	}
+
+	@Override
+	public TinyData get(final String key) throws IOException {
+		TinyData data = cache.get(key);
+		if (data != null)
+			return data;
+		final long before = epoch(key);
+		data = store.get(key);
+		if (data != null) {
+			populate(key, data, before);
+		}
+		return data;
+	}
+
+	private final int stripe(final String key) {
+		return key.hashCode() & (EPOCH_STRIPES - 1);
+	}
+
+	private final long epoch(final String key) {
+		return epochs.get(stripe(key));
+	}
+
+	/**
+	 * Cache value read from store, undone if key was invalidated since before the read
+	 */
+	private final void populate(final String key, final TinyData data, final long before) {
+		cache.put(key, data);
+		if (epochs.get(stripe(key)) != before) {
+			cache.remove(key);
+		}
+	}
+
+	/**
+	 * After store write: bump epoch (cancel in-flight read-through), then remove
+	 */
+	private final void invalidate(final String key) {
+		epochs.incrementAndGet(stripe(key));
+		cache.remove(key);
+	}
+
+	@Override
+	public void remove(final String key) throws IOException {
+		try {
+			store.remove(key);
+		} finally {
+			invalidate(key);
+		}
+	}
+
+	@Override
+	public long leaseSequence(final int size) throws IOException {
+		return store.leaseSequence(size);
+	}
+
+	@Override
+	public void dump(final OutputStream out) throws IOException {
+		store.dump(out);
+	}
+
+	@Override
+	public void dump(final OutputStream out, final long since, final String cursor) throws IOException {
+		store.dump(out, since, cursor);
+	}
+
+	@Override
+	public long load(final InputStream in) throws IOException {
+		// Only absent keys are stored (never cached)
+		return store.load(in);
+	}
+
+	public TinyLFUCache<String, TinyData> getCache() {
+		return cache;
+	}
+
+	private static final int parseInt(final String in, final int def) {
+		if ((in == null) || in.isEmpty())
+			return def;
+		return Integer.parseInt(in.trim());
+	}
+
+	private static final long parseLong(final String in, final long def) {
+		if ((in == null) || in.isEmpty())
+			return def;
+		return Long.parseLong(in.trim());
+	}
+}
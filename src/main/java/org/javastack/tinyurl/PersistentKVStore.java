@@ -1,13 +1,40 @@
 package org.javastack.tinyurl;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -23,22 +50,69 @@ import org.javastack.stringproperties.StringProperties;
 public class PersistentKVStore implements Persistence {
 	private static final Logger log = Logger.getLogger(PersistentKVStore.class);
 	private static final int BUF_LEN = 0x10000;
+	private static final int TIMELINE_RECORD = 4 + 8 + Constants.KEY_SPACE; // timestamp, offset, token
+	private static final int DUMP_WINDOW = 1024 * 1024; // sequential reads of stream in dumps
 	private final KVStoreFactory<TokenHolder, MetaHolder> fac = new KVStoreFactory<TokenHolder, MetaHolder>(
 			TokenHolder.class, MetaHolder.class);
-	private final ByteBuffer wbuf, rbuf;
+	private final ThreadLocal<ByteBuffer> wbuf = new BufferHolder();
+	private final ThreadLocal<ByteBuffer> rbuf = new BufferHolder();
+	// Serialize putIfAbsent of same key (striped, concurrent keys can join same group commit)
+	private final ReentrantLock[] keyLocks = new ReentrantLock[64];
 	private String storeDirName = System.getProperty("java.io.tmpdir", "/tmp/");
+	// Tree methods are synchronized (tree lookups are serialized, stream reads run in parallel), batches hold
+	// its monitor once
 	private BplusTreeFile<TokenHolder, MetaHolder> map = null;
 	private FileStreamStore stream = null;
+	private StreamReader reader = null;
+	private RandomAccessFile sequence = null;
+	// Time ordered index of stored keys (append-only, written before tree insert)
+	private FileChannel timeline = null;
+	private File storeTimelineClean = null; // clean close: keys in tree and records in timeline
+	private long timelineAppended = 0; // records written (guarded by timeline)
+	private int timelineLast = 0; // timestamp of last record, never decreases (guarded by timeline)
+	private volatile long timelineSize = 0; // records visible to dumps (tree insert done)
+	private final TreeMap<Long, Long> timelineDone = new TreeMap<Long, Long>(); // done ranges after visible
+	private boolean streamMmap = false;
+	private int streamMmapSegment = Constants.DEF_STREAM_MMAP_SEGMENT;
+	// Group commit
+	private boolean groupCommit = false;
+	private int groupCommitBatch = Constants.DEF_GROUP_COMMIT_BATCH;
+	private long groupCommitWait = Constants.DEF_GROUP_COMMIT_WAIT;
+	private GroupCommitter committer = null;
+	// Negative lookups
+	private boolean bloomEnabled = true;
+	private long bloomExpected = Constants.DEF_BLOOM_EXPECTED;
+	private double bloomFpp = Constants.DEF_BLOOM_FPP;
+	private File storeBloom = null;
+	private BloomFilter bloom = null;
+	private final LongAdder bloomLookups = new LongAdder();
+	private final LongAdder bloomNegatives = new LongAdder();
 
 	public PersistentKVStore() {
-		wbuf = ByteBuffer.allocate(BUF_LEN);
-		rbuf = ByteBuffer.allocate(BUF_LEN);
+		for (int i = 0; i < keyLocks.length; i++) {
+			keyLocks[i] = new ReentrantLock();
+		}
 	}
 
 	@Override
 	public void configure(final StringProperties properties) {
 		storeDirName = properties.getProperty("dir");
-		log.info("Storage config={dir=" + this.storeDirName + "}");
+		bloomEnabled = Boolean.parseBoolean(properties.getProperty("bloom", String.valueOf(bloomEnabled)));
+		bloomExpected = Long.parseLong(properties.getProperty("bloom.expected", String.valueOf(bloomExpected)));
+		bloomFpp = Double.parseDouble(properties.getProperty("bloom.fpp", String.valueOf(bloomFpp)));
+		streamMmap = Boolean.parseBoolean(properties.getProperty("stream.mmap", String.valueOf(streamMmap)));
+		streamMmapSegment = Integer.parseInt(properties.getProperty("stream.mmap.segment",
+				String.valueOf(streamMmapSegment)));
+		groupCommit = Boolean.parseBoolean(properties.getProperty("commit.group", String.valueOf(groupCommit)));
+		groupCommitBatch = Math.max(1, Integer.parseInt(properties.getProperty("commit.group.batch",
+				String.valueOf(groupCommitBatch))));
+		groupCommitWait = Math.max(0, Long.parseLong(properties.getProperty("commit.group.wait.micros",
+				String.valueOf(groupCommitWait))));
+		log.info("Storage config={dir=" + this.storeDirName + " bloom=" + bloomEnabled //
+				+ " bloom.expected=" + bloomExpected + " bloom.fpp=" + bloomFpp //
+				+ " stream.mmap=" + streamMmap + " stream.mmap.segment=" + streamMmapSegment //
+				+ " commit.group=" + groupCommit + " commit.group.batch=" + groupCommitBatch //
+				+ " commit.group.wait.micros=" + groupCommitWait + "}");
 	}
 
 	@Override
@@ -50,6 +124,10 @@ public class PersistentKVStore implements Persistence {
 		}
 		final File storeTree = new File(storeDir, "tree");
 		final File storeStream = new File(storeDir, "stream");
+		storeBloom = new File(storeDir, "bloom");
+		final File storeSequence = new File(storeDir, "sequence");
+		final File storeTimeline = new File(storeDir, "timeline");
+		storeTimelineClean = new File(storeDir, "timeline.clean");
 		try {
 			map = fac.createTreeFile(fac.createTreeOptionsDefault()
 					.set(KVStoreFactory.FILENAME, storeTree.getCanonicalPath())
@@ -61,7 +139,8 @@ public class PersistentKVStore implements Persistence {
 		}
 		stream = new FileStreamStore(storeStream, BUF_LEN);
 		stream.setAlignBlocks(true);
-		stream.setFlushOnWrite(true);
+		// Group commit flush (and sync) once per batch
+		stream.setFlushOnWrite(!groupCommit);
 		try {
 			if (map.open())
 				log.info("open tree ok");
@@ -78,42 +157,712 @@ public class PersistentKVStore implements Persistence {
 			}
 		}
 		stream.open();
+		if (StreamReader.isKnownFormat()) {
+			try {
+				reader = new StreamReader(storeStream, BUF_LEN, true, (streamMmap ? streamMmapSegment : 0));
+			} catch (IOException e) {
+				log.error("open positional reader error, fallback to stream: " + e);
+			}
+		} else {
+			log.warn("kvstore version " + StreamReader.libraryVersion() + " not in " + StreamReader.FORMAT_VERSIONS
+					+ ", positional reader disabled (reads from stream)");
+		}
+		if (bloomEnabled) {
+			openBloom();
+		}
+		sequence = new RandomAccessFile(storeSequence, "rw");
+		openTimeline(storeTimeline);
+		if (groupCommit) {
+			committer = new GroupCommitter();
+			committer.start();
+		}
+	}
+
+	private void openBloom() {
+		if (storeBloom.exists()) {
+			DataInputStream in = null;
+			try {
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeBloom), BUF_LEN));
+				final BloomFilter bf = BloomFilter.readFrom(in);
+				if (bf.isCompatible(bloomExpected, bloomFpp)) {
+					bloom = bf;
+					log.info("open bloom ok");
+				} else {
+					log.info("bloom config changed, rebuild needed");
+				}
+			} catch (IOException e) {
+				log.error("open bloom error, rebuild needed: " + e);
+			} finally {
+				closeSilent(in);
+			}
+			// Only valid until next clean close
+			storeBloom.delete();
+		}
+		if (bloom == null) {
+			final long begin = System.currentTimeMillis();
+			final BloomFilter bf = new BloomFilter(bloomExpected, bloomFpp);
+			final Iterator<TreeEntry<TokenHolder, MetaHolder>> i = map.iterator();
+			int count = 0;
+			while (i.hasNext()) {
+				bf.add(i.next().getKey().token);
+				count++;
+			}
+			bloom = bf;
+			log.info("bloom rebuilt keys=" + count + " (" + (System.currentTimeMillis() - begin) + "ms)");
+		}
+	}
+
+	private void openTimeline(final File storeTimeline) throws IOException {
+		timeline = FileChannel.open(storeTimeline.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		// Only valid until next clean close
+		final long[] clean = readTimelineClean();
+		storeTimelineClean.delete();
+		// Discard incomplete record (crash)
+		timelineSize = timeline.size() / TIMELINE_RECORD;
+		timeline.truncate(timelineSize * TIMELINE_RECORD);
+		timelineAppended = timelineSize;
+		timelineLast = readTimelineTimestamp(timelineSize - 1);
+		// Every key in tree must be in timeline (full dumps read only timeline), holds after a clean close if
+		// tree and timeline are the ones closed (removed keys leave records, so sizes can differ)
+		if (!map.isEmpty() && ((clean == null) || (clean[0] != map.size()) || (clean[1] != timelineSize))) {
+			final long live = countLiveTimeline();
+			if (live != map.size()) {
+				log.warn("timeline incomplete (live=" + live + " keys=" + map.size() + "), rebuild needed");
+				rebuildTimeline();
+			}
+		}
+	}
+
+	/**
+	 * Keys in tree and records in timeline at last clean close, null if not closed cleanly
+	 */
+	private long[] readTimelineClean() {
+		if (!storeTimelineClean.exists())
+			return null;
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(storeTimelineClean));
+			return new long[] {
+					in.readLong(), in.readLong()
+			};
+		} catch (IOException e) {
+			log.warn("timeline clean mark invalid: " + e);
+			return null;
+		} finally {
+			closeSilent(in);
+		}
+	}
+
+	private int readTimelineTimestamp(final long index) throws IOException {
+		if (index < 0)
+			return 0;
+		final ByteBuffer buf = ByteBuffer.allocate(4);
+		readFully(timeline, buf, index * TIMELINE_RECORD);
+		return buf.getInt(0);
+	}
+
+	/**
+	 * Number of timeline records pointing to current tree entries
+	 */
+	private long countLiveTimeline() throws IOException {
+		final int block = BUF_LEN / TIMELINE_RECORD;
+		final ByteBuffer buf = ByteBuffer.allocate(block * TIMELINE_RECORD);
+		final byte[] token = new byte[Constants.KEY_SPACE];
+		long live = 0;
+		for (long index = 0; index < timelineSize; index += block) {
+			final int len = (int) Math.min(block, timelineSize - index);
+			buf.clear().limit(len * TIMELINE_RECORD);
+			readFully(timeline, buf, index * TIMELINE_RECORD);
+			buf.flip();
+			for (int i = 0; i < len; i++) {
+				buf.getInt();
+				final long offset = buf.getLong();
+				buf.get(token);
+				final MetaHolder meta = map.get(TokenHolder.valueOf(decodeToken(token)));
+				if ((meta != null) && (meta.offset == offset)) {
+					live++;
+				}
+			}
+		}
+		return live;
+	}
+
+	/**
+	 * Build timeline of existing keys (upgrade), ordered by creation
+	 */
+	private void rebuildTimeline() throws IOException {
+		final long begin = System.currentTimeMillis();
+		final int count = map.size();
+		timeline.truncate(0);
+		// (timestamp, index) sorted, index points to offset and token
+		final long[] order = new long[count];
+		final long[] offsets = new long[count];
+		final String[] keys = new String[count];
+		final Iterator<TreeEntry<TokenHolder, MetaHolder>> i = map.iterator();
+		int n = 0;
+		while (i.hasNext() && (n < count)) {
+			final TreeEntry<TokenHolder, MetaHolder> e = i.next();
+			final MetaHolder meta = e.getValue();
+			order[n] = (((long) meta.timestamp) << 32) | n;
+			offsets[n] = meta.offset;
+			keys[n] = e.getKey().token;
+			n++;
+		}
+		Arrays.sort(order, 0, n);
+		final ByteBuffer buf = ByteBuffer.allocate(BUF_LEN - (BUF_LEN % TIMELINE_RECORD));
+		long position = 0;
+		for (int j = 0; j < n; j++) {
+			final int idx = (int) order[j];
+			putTimeline(buf, (int) (order[j] >>> 32), offsets[idx], keys[idx]);
+			if (!buf.hasRemaining() || (j == (n - 1))) {
+				buf.flip();
+				position += writeFully(timeline, buf, position);
+				buf.clear();
+			}
+		}
+		timeline.force(false);
+		timelineAppended = timelineSize = n;
+		timelineLast = readTimelineTimestamp(n - 1);
+		log.info("timeline rebuilt keys=" + n + " (" + (System.currentTimeMillis() - begin) + "ms)");
+	}
+
+	private static final void putTimeline(final ByteBuffer buf, final int timestamp, final long offset,
+			final String key) {
+		buf.putInt(timestamp);
+		buf.putLong(offset);
+		for (int i = 0; i < Constants.KEY_SPACE; i++) {
+			buf.put((byte) ((i < key.length()) ? key.charAt(i) : 0));
+		}
+	}
+
+	/**
+	 * Append keys to timeline before tree insert (a key in tree is always in timeline), visible to dumps
+	 * after {@link #publishTimeline(long, int)}. Time stored is assigned in append order, so the file is sorted
+	 * by time (binary search in incremental dumps).
+	 *
+	 * @param force sync to disk (same durability as stream writes)
+	 * @return position of first record
+	 */
+	private long appendTimeline(final String[] keys, final long[] offsets, final int len, final boolean force)
+			throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(len * TIMELINE_RECORD);
+		final long position;
+		synchronized (timeline) {
+			final int timestamp = Math.max(timelineLast, (int) (System.currentTimeMillis() / 1000));
+			for (int i = 0; i < len; i++) {
+				putTimeline(buf, timestamp, offsets[i], keys[i]);
+			}
+			buf.flip();
+			position = timelineAppended;
+			// On error nothing is reserved, next append overwrites
+			writeFully(timeline, buf, position * TIMELINE_RECORD);
+			timelineAppended = position + len;
+			timelineLast = timestamp;
+		}
+		if (force) {
+			timeline.force(false);
+		}
+		return position;
+	}
+
+	/**
+	 * Tree insert of appended records done (or failed: records not matching tree are skipped by dumps),
+	 * visible size advances over contiguous done ranges
+	 */
+	private void publishTimeline(final long position, final int len) {
+		synchronized (timeline) {
+			timelineDone.put(position, position + len);
+			long size = timelineSize;
+			Long end;
+			while ((end = timelineDone.remove(size)) != null) {
+				size = end;
+			}
+			timelineSize = size;
+		}
+	}
+
+	private static final int writeFully(final FileChannel fc, final ByteBuffer buf, final long position)
+			throws IOException {
+		int total = 0;
+		while (buf.hasRemaining()) {
+			total += fc.write(buf, position + total);
+		}
+		return total;
+	}
+
+	private void closeBloom() {
+		if (bloom == null)
+			return;
+		log.info("bloom stats={lookups=" + getBloomLookups() + " negatives=" + getBloomNegatives() + "}");
+		final File tmp = new File(storeBloom.getPath() + ".tmp");
+		DataOutputStream out = null;
+		try {
+			final FileOutputStream fos = new FileOutputStream(tmp);
+			out = new DataOutputStream(new BufferedOutputStream(fos, BUF_LEN));
+			bloom.writeTo(out);
+			out.flush();
+			fos.getFD().sync();
+			out.close();
+			out = null;
+			if (!tmp.renameTo(storeBloom)) {
+				throw new IOException("Unable to rename: " + tmp);
+			}
+		} catch (IOException e) {
+			log.error("save bloom error: " + e);
+			tmp.delete();
+		} finally {
+			closeSilent(out);
+		}
+	}
+
+	private void closeTimeline() {
+		if (timeline == null)
+			return;
+		DataOutputStream out = null;
+		try {
+			timeline.force(false);
+			out = new DataOutputStream(new FileOutputStream(storeTimelineClean));
+			out.writeLong(map.size());
+			out.writeLong(timelineSize);
+			out.close();
+			out = null;
+		} catch (IOException e) {
+			log.error("close timeline error: " + e);
+			closeSilent(out);
+			storeTimelineClean.delete();
+		}
+		closeSilent(timeline);
 	}
 
 	@Override
 	public void close() {
+		if (committer != null) {
+			// Not cleared: later puts fail with "Storage closed" (no write to closed stream)
+			committer.shutdown();
+		}
+		closeBloom();
+		closeSilent(sequence);
+		closeTimeline();
+		closeSilent(reader);
 		stream.close();
 		map.close();
 	}
 
+	/**
+	 * Number of lookups checked against bloom filter
+	 */
+	public long getBloomLookups() {
+		return bloomLookups.sum();
+	}
+
+	/**
+	 * Number of lookups resolved as definite miss by bloom filter (storage untouched)
+	 */
+	public long getBloomNegatives() {
+		return bloomNegatives.sum();
+	}
+
+	@Override
+	public void put(final String k, final String v) throws IOException {
+		final GroupCommitter committer = this.committer;
+		if (committer != null) {
+			committer.commit(k, v);
+			return;
+		}
+		final ByteBuffer buf = wbuf.get();
+		buf.clear();
+		StringSerializer.fromStringToBuffer(buf, v);
+		buf.flip();
+		final long offset = stream.write(buf);
+		final MetaHolder meta = MetaHolder.valueOf(offset);
+		final long position = appendTimeline(new String[] { k }, new long[] { offset }, 1, false);
+		try {
+			if (bloom != null) {
+				bloom.add(k);
+			}
+			map.put(TokenHolder.valueOf(k), meta);
+		} finally {
+			publishTimeline(position, 1);
+		}
+	}
+
 	@Override
-	public void put(final String k, final String v) {
-		long offset = -1;
-		synchronized (wbuf) {
-			wbuf.clear();
-			StringSerializer.fromStringToBuffer(wbuf, v);
-			wbuf.flip();
-			offset = stream.write(wbuf);
+	public TinyData putIfAbsent(final String k, final String v) throws IOException {
+		final ReentrantLock lock = keyLocks[lockIndex(k)];
+		lock.lock();
+		try {
+			final TinyData meta = get(k);
+			if (meta != null)
+				return meta;
+			put(k, v);
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private final int lockIndex(final String k) {
+		return (k.hashCode() & 0x7FFFFFFF) % keyLocks.length;
+	}
+
+	@Override
+	public Map<String, TinyData> putAll(final Map<String, String> mappings) throws IOException {
+		final TreeMap<String, String> sorted = new TreeMap<String, String>(mappings);
+		final HashMap<String, TinyData> collisions = new HashMap<String, TinyData>();
+		final boolean[] stripes = lockStripes(sorted.keySet());
+		try {
+			final Map<String, TinyData> existing = getAll(sorted.keySet());
+			final int size = sorted.size();
+			final String[] keys = new String[size];
+			final String[] urls = new String[size];
+			int len = 0;
+			for (final Map.Entry<String, String> e : sorted.entrySet()) {
+				final TinyData meta = existing.get(e.getKey());
+				if (meta == null) {
+					keys[len] = e.getKey();
+					urls[len] = e.getValue();
+					len++;
+				} else if (!e.getValue().equals(meta.getURL())) {
+					collisions.put(e.getKey(), meta);
+				}
+			}
+			if (len > 0) {
+				final int[] timestamps = new int[len];
+				Arrays.fill(timestamps, (int) (System.currentTimeMillis() / 1000));
+				insertSorted(keys, urls, timestamps, len);
+			}
+			return collisions;
+		} finally {
+			unlockStripes(stripes);
+		}
+	}
+
+	/**
+	 * Lock stripes of keys in ascending order (no deadlock with other batches)
+	 */
+	private final boolean[] lockStripes(final Collection<String> keys) {
+		final boolean[] stripes = new boolean[keyLocks.length];
+		for (final String k : keys) {
+			stripes[lockIndex(k)] = true;
+		}
+		for (int i = 0; i < stripes.length; i++) {
+			if (stripes[i])
+				keyLocks[i].lock();
+		}
+		return stripes;
+	}
+
+	private final void unlockStripes(final boolean[] stripes) {
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			if (stripes[i])
+				keyLocks[i].unlock();
+		}
+	}
+
+	/**
+	 * Store absent keys (sorted): sequential append, single sync, then sorted tree inserts
+	 */
+	private void insertSorted(final String[] keys, final String[] urls, final int[] timestamps, final int len)
+			throws IOException {
+		final long[] offsets = new long[len];
+		final ByteBuffer buf = wbuf.get();
+		// Hold stream for whole batch, no flush per record, durable before tree points to it
+		synchronized (stream) {
+			stream.setFlushOnWrite(false);
+			try {
+				for (int i = 0; i < len; i++) {
+					buf.clear();
+					StringSerializer.fromStringToBuffer(buf, urls[i]);
+					buf.flip();
+					offsets[i] = stream.write(buf);
+				}
+				stream.sync();
+			} finally {
+				stream.setFlushOnWrite(!groupCommit);
+			}
+		}
+		// Timeline is ordered by time stored (loaded rows keep creation in tree)
+		final long position = appendTimeline(keys, offsets, len, true);
+		try {
+			if (bloom != null) {
+				for (int i = 0; i < len; i++) {
+					bloom.add(keys[i]);
+				}
+			}
+			synchronized (map) {
+				for (int i = 0; i < len; i++) {
+					map.put(TokenHolder.valueOf(keys[i]), new MetaHolder(offsets[i], timestamps[i]));
+				}
+			}
+		} finally {
+			publishTimeline(position, len);
 		}
-		map.put(TokenHolder.valueOf(k), MetaHolder.valueOf(offset));
+	}
+
+	@Override
+	public long load(final InputStream in) throws IOException {
+		final long begin = System.currentTimeMillis();
+		final DumpReader reader = new DumpReader(in, Constants.KEY_SPACE);
+		final ArrayList<File> runs = new ArrayList<File>();
+		final ArrayList<LoadRow> rows = new ArrayList<LoadRow>();
+		final LoadBatch batch = new LoadBatch();
+		long count = 0;
+		try {
+			// Sort input in chunks: loaded directly while chunks are ascending, else spilled to sorted runs
+			boolean more = true;
+			while (more) {
+				rows.clear();
+				while (rows.size() < Constants.LOAD_SORT_ROWS) {
+					if (!(more = reader.next()))
+						break;
+					rows.add(new LoadRow(reader.getToken(), reader.getURL(), reader.getTimestamp()));
+				}
+				if (rows.isEmpty())
+					break;
+				count += rows.size();
+				Collections.sort(rows);
+				if (runs.isEmpty() && ((batch.last == null) || (rows.get(0).token.compareTo(batch.last) > 0))) {
+					for (final LoadRow row : rows) {
+						batch.add(row);
+					}
+				} else {
+					runs.add(spillRun(rows));
+				}
+			}
+			rows.clear();
+			if (!runs.isEmpty()) {
+				mergeRuns(runs, batch);
+			}
+			batch.flush();
+			map.sync();
+		} finally {
+			closeSilent(reader);
+			for (final File run : runs) {
+				run.delete();
+			}
+		}
+		log.info("Loaded rows=" + count + " stored=" + batch.stored + " skipped=" + (count - batch.stored)
+				+ " invalid=" + reader.getInvalid() + " runs=" + runs.size() + " ("
+				+ (System.currentTimeMillis() - begin) + "ms)");
+		return batch.stored;
+	}
+
+	/**
+	 * Write sorted rows to a temporary file (dump format)
+	 */
+	private File spillRun(final List<LoadRow> rows) throws IOException {
+		final File run = File.createTempFile("load-", ".run", new File(storeDirName));
+		final Charset iso = StandardCharsets.ISO_8859_1;
+		final byte[] CRLF = "\r\n".getBytes(iso);
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(run), BUF_LEN);
+			out.write("token,url,created-unix-epoch-utc".getBytes(iso));
+			out.write(CRLF);
+			for (final LoadRow row : rows) {
+				out.write(row.token.getBytes(iso));
+				out.write(',');
+				out.write(row.url.getBytes(iso));
+				out.write(',');
+				out.write(Integer.toString(row.timestamp).getBytes(iso));
+				out.write(CRLF);
+			}
+			out.close();
+			out = null;
+		} catch (IOException e) {
+			closeSilent(out);
+			run.delete();
+			throw e;
+		}
+		return run;
+	}
+
+	/**
+	 * K-way merge of sorted runs
+	 */
+	private void mergeRuns(final List<File> runs, final LoadBatch batch) throws IOException {
+		final PriorityQueue<DumpReader> heap = new PriorityQueue<DumpReader>(runs.size(),
+				new Comparator<DumpReader>() {
+					@Override
+					public int compare(final DumpReader a, final DumpReader b) {
+						return a.getToken().compareTo(b.getToken());
+					}
+				});
+		final ArrayList<DumpReader> readers = new ArrayList<DumpReader>(runs.size());
+		try {
+			for (final File run : runs) {
+				final DumpReader r = new DumpReader(new FileInputStream(run), Constants.KEY_SPACE);
+				readers.add(r);
+				if (r.next()) {
+					heap.add(r);
+				}
+			}
+			DumpReader r;
+			while ((r = heap.poll()) != null) {
+				batch.add(new LoadRow(r.getToken(), r.getURL(), r.getTimestamp()));
+				if (r.next()) {
+					heap.add(r);
+				}
+			}
+		} finally {
+			for (final DumpReader reader : readers) {
+				closeSilent(reader);
+			}
+		}
+	}
+
+	private static final class LoadRow implements Comparable<LoadRow> {
+		final String token;
+		final String url;
+		final int timestamp;
+
+		LoadRow(final String token, final String url, final int timestamp) {
+			this.token = token;
+			this.url = url;
+			this.timestamp = timestamp;
+		}
+
+		@Override
+		public int compareTo(final LoadRow o) {
+			return token.compareTo(o.token);
+		}
+	}
+
+	/**
+	 * Rows in ascending order, stored in batches (duplicates and existing keys are skipped)
+	 */
+	private final class LoadBatch {
+		final String[] keys = new String[Constants.LOAD_BATCH];
+		final String[] urls = new String[Constants.LOAD_BATCH];
+		final int[] timestamps = new int[Constants.LOAD_BATCH];
+		int len = 0;
+		String last = null;
+		long stored = 0;
+
+		void add(final LoadRow row) throws IOException {
+			if ((last != null) && last.equals(row.token))
+				return;
+			keys[len] = last = row.token;
+			urls[len] = row.url;
+			timestamps[len] = row.timestamp;
+			if (++len >= keys.length) {
+				flush();
+			}
+		}
+
+		void flush() throws IOException {
+			if (len == 0)
+				return;
+			final boolean[] stripes = lockStripes(Arrays.asList(keys).subList(0, len));
+			try {
+				// Remove existing keys (fresh storage: all resolved by bloom)
+				int n = 0;
+				synchronized (map) {
+					for (int i = 0; i < len; i++) {
+						final String k = keys[i];
+						if (((bloom == null) || bloom.mightContain(k)) && (map.get(TokenHolder.valueOf(k)) != null))
+							continue;
+						keys[n] = k;
+						urls[n] = urls[i];
+						timestamps[n] = timestamps[i];
+						n++;
+					}
+				}
+				if (n > 0) {
+					insertSorted(keys, urls, timestamps, n);
+					stored += n;
+				}
+			} finally {
+				unlockStripes(stripes);
+				Arrays.fill(keys, 0, len, null);
+				Arrays.fill(urls, 0, len, null);
+				len = 0;
+			}
+		}
+	}
+
+	@Override
+	public Map<String, TinyData> getAll(final Collection<String> keys) {
+		final TreeSet<String> sorted = new TreeSet<String>();
+		for (final String k : keys) {
+			if (bloom != null) {
+				bloomLookups.increment();
+				if (!bloom.mightContain(k)) {
+					bloomNegatives.increment();
+					continue;
+				}
+			}
+			sorted.add(k);
+		}
+		final HashMap<String, TinyData> found = new HashMap<String, TinyData>();
+		if (sorted.isEmpty())
+			return found;
+		// Tree lookups in key order (same path nodes), then stream reads in offset order
+		final ArrayList<MetaHolder> metas = new ArrayList<MetaHolder>(sorted.size());
+		synchronized (map) {
+			for (final String k : sorted) {
+				final MetaHolder meta = map.get(TokenHolder.valueOf(k));
+				if (meta != null) {
+					metas.add(meta);
+					found.put(k, meta);
+				}
+			}
+		}
+		Collections.sort(metas);
+		for (final MetaHolder meta : metas) {
+			readExternal(meta);
+		}
+		return found;
 	}
 
 	@Override
 	public TinyData get(final String k) {
+		if (bloom != null) {
+			bloomLookups.increment();
+			if (!bloom.mightContain(k)) {
+				bloomNegatives.increment();
+				return null;
+			}
+		}
 		final MetaHolder meta = map.get(TokenHolder.valueOf(k));
 		if (meta == null)
 			return null;
 		readExternal(meta);
-		log.info("Found meta id=" + k + " [" + meta + "]");
+		if (log.isDebugEnabled()) {
+			log.debug("Found meta id=" + k + " [" + meta + "]");
+		}
 		return meta;
 	}
 
 	private void readExternal(final MetaHolder meta) {
-		synchronized (rbuf) {
-			rbuf.clear();
-			stream.read(meta.offset, rbuf);
-			meta.url = StringSerializer.fromBufferToString(rbuf);
+		final StreamReader reader = this.reader;
+		if ((reader != null) && reader.isMapped()) {
+			try {
+				final ByteBuffer view = reader.map(meta.offset);
+				if (view != null) {
+					meta.url = StringSerializer.fromBufferToString(view);
+					return;
+				}
+			} catch (IOException e) {
+				log.warn("Mapped read error offset=" + meta.offset + ": " + e);
+			}
+		}
+		final ByteBuffer buf = rbuf.get();
+		buf.clear();
+		if (reader != null) {
+			try {
+				if (reader.read(meta.offset, buf)) {
+					meta.url = StringSerializer.fromBufferToString(buf);
+					return;
+				}
+			} catch (IOException e) {
+				log.warn("Positional read error offset=" + meta.offset + ": " + e);
+			}
+			buf.clear();
 		}
+		stream.read(meta.offset, buf);
+		meta.url = StringSerializer.fromBufferToString(buf);
 	}
 
 	@Override
@@ -121,28 +870,175 @@ public class PersistentKVStore implements Persistence {
 		map.remove(TokenHolder.valueOf(k));
 	}
 
+	@Override
+	public synchronized long leaseSequence(final int size) throws IOException {
+		sequence.seek(0);
+		final long first = ((sequence.length() >= 8) ? sequence.readLong() : 0);
+		sequence.seek(0);
+		sequence.writeLong(first + size);
+		sequence.getFD().sync();
+		return first;
+	}
+
+	/**
+	 * Snapshot dump: keys stored before dump start, in timeline order
+	 */
 	@Override
 	public void dump(final OutputStream out) throws IOException {
-		final Charset iso = Charset.forName("ISO-8859-1");
+		dumpTimeline(out, 0, timelineSize, false);
+	}
+
+	/**
+	 * Incremental dump: cursor is the timeline position after each row
+	 */
+	@Override
+	public void dump(final OutputStream out, final long since, final String cursor) throws IOException {
+		final long size = timelineSize;
+		long index = searchTimeline(since, size);
+		if (cursor != null) {
+			final long position = Long.parseLong(cursor);
+			if (position < 0)
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			index = Math.max(index, position);
+		}
+		dumpTimeline(out, index, size, true);
+	}
+
+	/**
+	 * Scan timeline [index, size) in blocks: join with tree (short read lock per block, removed or replaced
+	 * keys are skipped), then read urls in offset order with a sequential scanner of stream
+	 */
+	private void dumpTimeline(final OutputStream out, long index, final long size, final boolean withCursor)
+			throws IOException {
+		final Charset iso = StandardCharsets.ISO_8859_1;
 		final byte[] CRLF = "\r\n".getBytes(iso);
-		final Iterator<TreeEntry<TokenHolder, MetaHolder>> i = map.iterator();
-		out.write("token,url,created-unix-epoch-utc".getBytes(iso));
+		out.write((withCursor ? "token,url,created-unix-epoch-utc,cursor" : "token,url,created-unix-epoch-utc")
+				.getBytes(iso));
 		out.write(CRLF);
-		while (i.hasNext()) {
-			final TreeEntry<TokenHolder, MetaHolder> e = i.next();
-			final TokenHolder token = e.getKey();
-			final MetaHolder meta = e.getValue();
-			readExternal(meta);
-			out.write(token.token.getBytes(iso));
-			out.write(',');
-			out.write(meta.getURL().getBytes(iso));
-			out.write(',');
-			out.write(Long.toString(meta.timestamp).getBytes(iso));
-			out.write(CRLF);
+		final StreamReader reader = this.reader;
+		final StreamReader.Scanner scanner = ((reader != null) ? reader.scanner(DUMP_WINDOW) : null);
+		final int block = BUF_LEN / TIMELINE_RECORD;
+		final ByteBuffer buf = ByteBuffer.allocate(block * TIMELINE_RECORD);
+		final ByteBuffer rbuf = ByteBuffer.allocate(BUF_LEN);
+		final byte[] token = new byte[Constants.KEY_SPACE];
+		final DumpRow[] rows = new DumpRow[block];
+		while (index < size) {
+			final int len = (int) Math.min(block, size - index);
+			buf.clear().limit(len * TIMELINE_RECORD);
+			readFully(timeline, buf, index * TIMELINE_RECORD);
+			buf.flip();
+			for (int i = 0; i < len; i++) {
+				buf.getInt(); // time stored
+				final long offset = buf.getLong();
+				buf.get(token);
+				rows[i] = new DumpRow(decodeToken(token), offset, index + i + 1);
+			}
+			int n = 0;
+			synchronized (map) {
+				for (int i = 0; i < len; i++) {
+					final DumpRow row = rows[i];
+					final MetaHolder meta = map.get(TokenHolder.valueOf(row.token));
+					if ((meta != null) && (meta.offset == row.offset)) {
+						row.meta = meta;
+						rows[n++] = row;
+					}
+				}
+			}
+			Arrays.sort(rows, 0, n);
+			for (int i = 0; i < n; i++) {
+				final MetaHolder meta = rows[i].meta;
+				rbuf.clear();
+				if ((scanner != null) && scanner.read(meta.offset, rbuf)) {
+					meta.url = StringSerializer.fromBufferToString(rbuf);
+				} else {
+					readExternal(meta);
+				}
+			}
+			// Output in timeline order (cursor)
+			if (withCursor) {
+				Arrays.sort(rows, 0, n, DumpRow.BY_CURSOR);
+			}
+			for (int i = 0; i < n; i++) {
+				final DumpRow row = rows[i];
+				out.write(row.token.getBytes(iso));
+				out.write(',');
+				out.write(row.meta.getURL().getBytes(iso));
+				out.write(',');
+				out.write(Long.toString(row.meta.timestamp).getBytes(iso));
+				if (withCursor) {
+					out.write(',');
+					out.write(Long.toString(row.cursor).getBytes(iso));
+				}
+				out.write(CRLF);
+			}
+			Arrays.fill(rows, 0, len, null);
+			index += len;
 		}
 		out.flush();
 	}
 
+	private static final class DumpRow implements Comparable<DumpRow> {
+		static final Comparator<DumpRow> BY_CURSOR = new Comparator<DumpRow>() {
+			@Override
+			public int compare(final DumpRow a, final DumpRow b) {
+				return Long.compare(a.cursor, b.cursor);
+			}
+		};
+		final String token;
+		final long offset;
+		final long cursor;
+		MetaHolder meta = null;
+
+		DumpRow(final String token, final long offset, final long cursor) {
+			this.token = token;
+			this.offset = offset;
+			this.cursor = cursor;
+		}
+
+		@Override
+		public int compareTo(final DumpRow o) {
+			return Long.compare(offset, o.offset);
+		}
+	}
+
+	/**
+	 * First timeline position stored at or after since (unix epoch seconds)
+	 */
+	private long searchTimeline(final long since, final long size) throws IOException {
+		final ByteBuffer buf = ByteBuffer.allocate(4);
+		long low = 0, high = size;
+		while (low < high) {
+			final long mid = (low + high) >>> 1;
+			buf.clear();
+			readFully(timeline, buf, mid * TIMELINE_RECORD);
+			if ((buf.getInt(0) & 0xFFFFFFFFL) < since) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static final String decodeToken(final byte[] token) {
+		int len = 0;
+		while ((len < token.length) && (token[len] != 0)) {
+			len++;
+		}
+		return new String(token, 0, len, StandardCharsets.ISO_8859_1);
+	}
+
+	private static final void readFully(final FileChannel fc, final ByteBuffer buf, final long position)
+			throws IOException {
+		int total = 0;
+		while (buf.hasRemaining()) {
+			final int n = fc.read(buf, position + total);
+			if (n < 0)
+				throw new IOException("Unexpected end of timeline");
+			total += n;
+		}
+	}
+
 	public static class TokenHolder extends DataHolder<TokenHolder> {
 		private final String token;
 
@@ -269,12 +1165,172 @@ public class PersistentKVStore implements Persistence {
 		}
 	}
 
+	private static final class PendingPut {
+		final String key;
+		final String url;
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile Throwable error = null;
+
+		PendingPut(final String key, final String url) {
+			this.key = key;
+			this.url = url;
+		}
+	}
+
+	/**
+	 * Queue concurrent puts and write them as one batch, made durable with a single sync
+	 */
+	private final class GroupCommitter extends Thread {
+		private final LinkedBlockingQueue<PendingPut> queue = new LinkedBlockingQueue<PendingPut>();
+		private final ArrayList<PendingPut> batch = new ArrayList<PendingPut>(groupCommitBatch);
+		private final long[] offsets = new long[groupCommitBatch];
+		private final ByteBuffer buf = ByteBuffer.allocate(BUF_LEN);
+		private volatile boolean running = true;
+
+		GroupCommitter() {
+			super("GroupCommitter-" + storeDirName);
+			setDaemon(true);
+		}
+
+		void commit(final String k, final String v) throws IOException {
+			if (!running)
+				throw new IOException("Storage closed");
+			final PendingPut p = new PendingPut(k, v);
+			queue.add(p);
+			// Shutdown after check: if not taken by committer (or shutdown drain), nobody will complete it
+			if (!running && queue.remove(p))
+				throw new IOException("Storage closed");
+			boolean interrupted = false;
+			while (true) {
+				try {
+					p.done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			if (p.error != null) {
+				throw new IOException("Group commit failed", p.error);
+			}
+		}
+
+		void shutdown() {
+			running = false;
+			try {
+				join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			PendingPut p = null;
+			while ((p = queue.poll()) != null) {
+				p.error = new IOException("Storage closed");
+				p.done.countDown();
+			}
+		}
+
+		@Override
+		public void run() {
+			while (running || !queue.isEmpty()) {
+				try {
+					final PendingPut first = queue.poll(100, TimeUnit.MILLISECONDS);
+					if (first == null)
+						continue;
+					batch.add(first);
+					fillBatch();
+				} catch (InterruptedException e) {
+					if (batch.isEmpty())
+						continue;
+				}
+				try {
+					writeBatch();
+				} catch (Throwable t) {
+					log.error("Group commit error: " + t, t);
+					for (final PendingPut p : batch) {
+						p.error = t;
+					}
+				} finally {
+					for (final PendingPut p : batch) {
+						p.done.countDown();
+					}
+					batch.clear();
+				}
+			}
+		}
+
+		private void fillBatch() throws InterruptedException {
+			final long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(groupCommitWait);
+			while (batch.size() < groupCommitBatch) {
+				PendingPut p = queue.poll();
+				if (p == null) {
+					final long remain = deadline - System.nanoTime();
+					if (remain <= 0)
+						break;
+					p = queue.poll(remain, TimeUnit.NANOSECONDS);
+					if (p == null)
+						break;
+				}
+				batch.add(p);
+			}
+		}
+
+		private void writeBatch() throws IOException {
+			final int len = batch.size();
+			final String[] keys = new String[len];
+			for (int i = 0; i < len; i++) {
+				buf.clear();
+				StringSerializer.fromStringToBuffer(buf, batch.get(i).url);
+				buf.flip();
+				offsets[i] = stream.write(buf);
+			}
+			stream.sync();
+			for (int i = 0; i < len; i++) {
+				keys[i] = batch.get(i).key;
+			}
+			final int timestamp = (int) (System.currentTimeMillis() / 1000);
+			final long position = appendTimeline(keys, offsets, len, true);
+			try {
+				if (bloom != null) {
+					for (int i = 0; i < len; i++) {
+						bloom.add(keys[i]);
+					}
+				}
+				synchronized (map) {
+					for (int i = 0; i < len; i++) {
+						map.put(TokenHolder.valueOf(keys[i]), new MetaHolder(offsets[i], timestamp));
+					}
+				}
+			} finally {
+				publishTimeline(position, len);
+			}
+		}
+	}
+
+	private static final class BufferHolder extends ThreadLocal<ByteBuffer> {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(BUF_LEN);
+		}
+	}
+
+	private static final void closeSilent(final Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (Throwable ign) {
+			}
+		}
+	}
+
 	/**
-	 * Simple command line Tool
+	 * Simple command line Tool: dump storage to stdout, or import CSV (file or stdin) in dump format
 	 */
 	public static void main(final String[] args) throws Throwable {
-		if (args.length != 1) {
-			System.out.println(PersistentKVStore.class.getName() + " <directory-of-storage>");
+		final boolean load = ((args.length == 3) && "import".equals(args[1]));
+		if ((args.length != 1) && !load) {
+			System.out.println(PersistentKVStore.class.getName() + " <directory-of-storage> [import <csv-file|->]");
 			System.exit(1);
 		}
 		final File dir = new File(args[0]);
@@ -283,9 +1339,25 @@ public class PersistentKVStore implements Persistence {
 		}
 		Logger.getRootLogger().setLevel(Level.ERROR);
 		final PersistentKVStore storage = new PersistentKVStore();
-		final BufferedOutputStream out = new BufferedOutputStream(System.out, 4096);
 		final StringProperties conf = new StringProperties();
 		conf.setProperty("dir", dir.getAbsolutePath());
+		if (load) {
+			final InputStream in = ("-".equals(args[2]) ? System.in : new FileInputStream(args[2]));
+			try {
+				storage.configure(conf);
+				storage.open();
+				final long begin = System.nanoTime();
+				final long rows = storage.load(in);
+				final long elapsed = Math.max(1, (System.nanoTime() - begin) / 1000000);
+				System.out.println("loaded=" + rows + " time=" + elapsed + "ms rate=" + (rows * 1000 / elapsed)
+						+ " rows/s");
+			} finally {
+				storage.close();
+				closeSilent(in);
+			}
+			return;
+		}
+		final BufferedOutputStream out = new BufferedOutputStream(System.out, 4096);
 		try {
 			storage.configure(conf);
 			storage.open();
@@ -295,4 +1367,4 @@ public class PersistentKVStore implements Persistence {
 			out.flush();
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,119 @@
+package org.javastack.tinyurl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
+
+import org.javastack.stringproperties.StringProperties;
+
+/**
+ * Latency of storage operations of other Persistence, labeled by implementation
+ */
+public class PersistentMetrics implements Persistence {
+	private static final String NAME = "tinyurl_storage_duration_seconds";
+	private static final String HELP = "Storage operation latency";
+	private final Persistence store;
+	private final Metrics.Histogram get, getAll, put, putIfAbsent, putAll;
+
+	public PersistentMetrics(final Persistence store) {
+		this.store = store;
+		final String storage = store.getClass().getSimpleName();
+		this.get = Metrics.histogram(NAME, HELP, "storage", storage, "op", "get");
+		this.getAll = Metrics.histogram(NAME, HELP, "storage", storage, "op", "getAll");
+		this.put = Metrics.histogram(NAME, HELP, "storage", storage, "op", "put");
+		this.putIfAbsent = Metrics.histogram(NAME, HELP, "storage", storage, "op", "putIfAbsent");
+		this.putAll = Metrics.histogram(NAME, HELP, "storage", storage, "op", "putAll");
+	}
+
+	@Override
+	public void configure(final StringProperties properties) {
+		store.configure(properties);
+	}
+
+	@Override
+	public void open() throws IOException {
+		store.open();
+	}
+
+	@Override
+	public void close() {
+		store.close();
+	}
+
+	@Override
+	public void put(final String key, final String url) throws IOException {
+		final long begin = System.nanoTime();
+		try {
+			store.put(key, url);
+		} finally {
+			put.observeSince(begin);
+		}
+	}
+
+	@Override
+	public TinyData putIfAbsent(final String key, final String url) throws IOException {
+		final long begin = System.nanoTime();
+		try {
+			return store.putIfAbsent(key, url);
+		} finally {
+			putIfAbsent.observeSince(begin);
+		}
+	}
+
+	@Override
+	public Map<String, TinyData> putAll(final Map<String, String> mappings) throws IOException {
+		final long begin = System.nanoTime();
+		try {
+			return store.putAll(mappings);
+		} finally {
+			putAll.observeSince(begin);
+		}
+	}
+
+	@Override
+	public TinyData get(final String key) throws IOException {
+		final long begin = System.nanoTime();
+		try {
+			return store.get(key);
+		} finally {
+			get.observeSince(begin);
+		}
+	}
+
+	@Override
+	public Map<String, TinyData> getAll(final Collection<String> keys) throws IOException {
+		final long begin = System.nanoTime();
+		try {
+			return store.getAll(keys);
+		} finally {
+			getAll.observeSince(begin);
+		}
+	}
+
+	@Override
+	public void remove(final String key) throws IOException {
+		store.remove(key);
+	}
+
+	@Override
+	public long leaseSequence(final int size) throws IOException {
+		return store.leaseSequence(size);
+	}
+
+	@Override
+	public void dump(final OutputStream out) throws IOException {
+		store.dump(out);
+	}
+
+	@Override
+	public void dump(final OutputStream out, final long since, final String cursor) throws IOException {
+		store.dump(out, since, cursor);
+	}
+
+	@Override
+	public long load(final InputStream in) throws IOException {
+		return store.load(in);
+	}
+}
@@ -0,0 +1,19 @@
+package org.javastack.tinyurl;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request IDs for logs (MDC): random prefix per process and monotonic counter, not for security use
+ */
+final class RequestID {
+	private static final String PREFIX = String.format("%08x-", new Random().nextInt());
+	private static final AtomicLong counter = new AtomicLong();
+
+	private RequestID() {
+	}
+
+	static String next() {
+		return PREFIX.concat(Long.toHexString(counter.incrementAndGet()));
+	}
+}
@@ -0,0 +1,77 @@
+package org.javastack.tinyurl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesce concurrent executions of same key: one caller runs the task and all concurrent callers share its
+ * result (value or exception).
+ */
+public class SingleFlight<K, V> {
+	private final ConcurrentHashMap<K, Call<V>> calls = new ConcurrentHashMap<K, Call<V>>();
+	private final LongAdder executed = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+
+	public V execute(final K key, final Callable<V> task) throws Exception {
+		final Call<V> call = new Call<V>();
+		final Call<V> running = calls.putIfAbsent(key, call);
+		if (running != null) {
+			coalesced.increment();
+			return running.await();
+		}
+		executed.increment();
+		try {
+			call.value = task.call();
+			return call.value;
+		} catch (Throwable t) {
+			call.error = t;
+			throw t;
+		} finally {
+			calls.remove(key, call);
+			call.done.countDown();
+		}
+	}
+
+	/**
+	 * Number of tasks executed
+	 */
+	public long getExecuted() {
+		return executed.sum();
+	}
+
+	/**
+	 * Number of calls that shared result of a running task
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	private static final class Call<V> {
+		final CountDownLatch done = new CountDownLatch(1);
+		volatile V value;
+		volatile Throwable error;
+
+		V await() throws Exception {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			final Throwable t = error;
+			if (t instanceof Exception)
+				throw (Exception) t;
+			if (t instanceof Error)
+				throw (Error) t;
+			return value;
+		}
+	}
+}
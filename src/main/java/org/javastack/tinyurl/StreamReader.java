@@ -0,0 +1,335 @@
+package org.javastack.tinyurl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.javastack.kvstore.io.FileStreamStore;
+
+/**
+ * Positional (pread) reader of records written by {@link org.javastack.kvstore.io.FileStreamStore}.
+ * <p>
+ * Don't share file pointer or buffers, so readers run in parallel.
+ * <p>
+ * Scans (dumps) use a {@link Scanner}, reading ahead in big sequential reads.
+ * <p>
+ * Optionally the file can be mapped in memory, in fixed size segments (each mapped once, on demand, when it is
+ * complete in file), then records are decoded from mapped region without read syscalls; records in the
+ * partial tail segment, or not fully inside one segment, are read with pread.
+ * <p>
+ * Record format: <code>MAGIC(short) LENGTH(int) DATA(byte[LENGTH]) FOOTER(byte)</code>, with aligned blocks
+ * the tail of a block can be filled with padding bytes.
+ * <p>
+ * This format is private to FileStreamStore (not an API of kvstore), it is copied here from the versions in
+ * {@link #FORMAT_VERSIONS}. Callers must check {@link #isKnownFormat()} before use and read with
+ * {@link FileStreamStore#read(long, ByteBuffer)} for other versions; a kvstore upgrade must verify the format
+ * and add its version.
+ */
+final class StreamReader implements Closeable {
+	static final int MAGIC = 0x754C;
+	static final byte MAGIC_PADDING = 0x42;
+	static final byte MAGIC_FOOT = 0x24;
+	static final int HEADER_LEN = 6;
+	static final int FOOTER_LEN = 1;
+	private static final int PREFETCH = 4096;
+	private static final int MAX_SEGMENT_SIZE = 0x40000000; // 1GB
+	// kvstore versions writing this record format
+	static final List<String> FORMAT_VERSIONS = Arrays.asList("1.0.2");
+	private static final String POM_PROPERTIES = "/META-INF/maven/org.javastack/kvstore/pom.properties";
+
+	private final FileChannel fc;
+	private final int blockSize;
+	private final boolean alignBlocks;
+	private final int segmentSize;
+	private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+	private final ThreadLocal<ByteBuffer> prefetch = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(PREFETCH);
+		}
+	};
+
+	StreamReader(final File file, final int blockSize, final boolean alignBlocks) throws IOException {
+		this(file, blockSize, alignBlocks, 0);
+	}
+
+	/**
+	 * @param segmentSize size of mapped segments (rounded to blockSize), 0 to disable mapping
+	 */
+	StreamReader(final File file, final int blockSize, final boolean alignBlocks, final int segmentSize)
+			throws IOException {
+		this.fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		this.blockSize = blockSize;
+		this.alignBlocks = alignBlocks;
+		if (segmentSize > 0) {
+			// Aligned records smaller than a block never cross segments
+			final long blocks = (Math.min(segmentSize, MAX_SEGMENT_SIZE) + blockSize - 1) / blockSize;
+			this.segmentSize = (int) Math.min(blocks * blockSize, (MAX_SEGMENT_SIZE / blockSize) * blockSize);
+		} else {
+			this.segmentSize = 0;
+		}
+	}
+
+	/**
+	 * Version of kvstore library in classpath (jar manifest or maven metadata), null if unknown
+	 */
+	static String libraryVersion() {
+		final Package pkg = FileStreamStore.class.getPackage();
+		if ((pkg != null) && (pkg.getImplementationVersion() != null)) {
+			return pkg.getImplementationVersion();
+		}
+		final InputStream in = FileStreamStore.class.getResourceAsStream(POM_PROPERTIES);
+		if (in == null)
+			return null;
+		try {
+			final Properties p = new Properties();
+			p.load(in);
+			return p.getProperty("version");
+		} catch (IOException e) {
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException ign) {
+			}
+		}
+	}
+
+	/**
+	 * Records written by kvstore in classpath have the format of this reader
+	 */
+	static boolean isKnownFormat() {
+		return FORMAT_VERSIONS.contains(libraryVersion());
+	}
+
+	boolean isMapped() {
+		return (segmentSize > 0);
+	}
+
+	/**
+	 * Return a view of record payload at offset from mapped region (no copy)
+	 *
+	 * @return view buffer or null if record is not in a mapped segment (use {@link #read(long, ByteBuffer)})
+	 */
+	ByteBuffer map(long offset) throws IOException {
+		if (segmentSize <= 0)
+			return null;
+		ByteBuffer seg;
+		int pos;
+		while (true) {
+			seg = segmentFor(offset);
+			if (seg == null)
+				return null;
+			pos = (int) (offset % segmentSize);
+			if ((pos + HEADER_LEN) > segmentSize)
+				return null; // header crossing segments
+			if (alignBlocks && (seg.get(pos) == MAGIC_PADDING)) {
+				final long next = nextBlockBoundary(offset);
+				if (next > offset) {
+					offset = next;
+					continue;
+				}
+			}
+			if ((seg.getShort(pos) & 0xFFFF) != MAGIC)
+				return null;
+			break;
+		}
+		final int datalen = seg.getInt(pos + 2);
+		if ((datalen < 0) || (datalen > (segmentSize - pos - HEADER_LEN - FOOTER_LEN)))
+			return null; // invalid or crossing segments
+		final int total = HEADER_LEN + datalen + FOOTER_LEN;
+		if (seg.get(pos + total - FOOTER_LEN) != MAGIC_FOOT)
+			return null;
+		final ByteBuffer view = seg.duplicate();
+		view.limit(pos + HEADER_LEN + datalen).position(pos + HEADER_LEN);
+		return view;
+	}
+
+	/**
+	 * Mapped segment of offset, null if segment is not complete in file (read with pread)
+	 */
+	private final ByteBuffer segmentFor(final long offset) throws IOException {
+		final int index = (int) (offset / segmentSize);
+		final MappedByteBuffer[] segs = segments;
+		if ((index < segs.length) && (segs[index] != null)) {
+			return segs[index];
+		}
+		return mapSegment(index);
+	}
+
+	private synchronized final ByteBuffer mapSegment(final int index) throws IOException {
+		MappedByteBuffer[] segs = segments;
+		if ((index < segs.length) && (segs[index] != null)) {
+			return segs[index];
+		}
+		final long base = ((long) index * segmentSize);
+		if ((fc.size() - base) < segmentSize) {
+			return null; // partial tail, mapped once complete (never remapped)
+		}
+		final MappedByteBuffer seg = fc.map(MapMode.READ_ONLY, base, segmentSize);
+		if (index >= segs.length) {
+			final MappedByteBuffer[] n = new MappedByteBuffer[index + 1];
+			System.arraycopy(segs, 0, n, 0, segs.length);
+			segs = n;
+		} else {
+			segs = segs.clone();
+		}
+		segs[index] = seg;
+		segments = segs;
+		return seg;
+	}
+
+	/**
+	 * Read record payload at offset into buf (flipped on return)
+	 *
+	 * @return false if record is invalid or incomplete
+	 */
+	boolean read(long offset, final ByteBuffer buf) throws IOException {
+		final ByteBuffer pre = prefetch.get();
+		int readed;
+		while (true) {
+			pre.clear();
+			readed = readFully(pre, offset);
+			if (readed < HEADER_LEN)
+				return false;
+			if (alignBlocks && (pre.get(0) == MAGIC_PADDING)) {
+				final long next = nextBlockBoundary(offset);
+				if (next > offset) {
+					offset = next;
+					continue;
+				}
+			}
+			if ((pre.getShort(0) & 0xFFFF) != MAGIC)
+				return false;
+			break;
+		}
+		final int datalen = pre.getInt(2);
+		if ((datalen < 0) || (datalen > buf.remaining()))
+			return false;
+		final int total = HEADER_LEN + datalen + FOOTER_LEN;
+		if (total <= readed) {
+			// Fast path: whole record prefetched
+			if (pre.get(total - FOOTER_LEN) != MAGIC_FOOT)
+				return false;
+			pre.limit(HEADER_LEN + datalen).position(HEADER_LEN);
+			buf.put(pre);
+		} else {
+			final int limit = buf.limit();
+			buf.limit(buf.position() + datalen);
+			final int n = readFully(buf, offset + HEADER_LEN);
+			buf.limit(limit);
+			if (n < datalen)
+				return false;
+			pre.clear().limit(FOOTER_LEN);
+			if ((readFully(pre, offset + HEADER_LEN + datalen) < FOOTER_LEN) || (pre.get(0) != MAGIC_FOOT))
+				return false;
+		}
+		buf.flip();
+		return true;
+	}
+
+	/**
+	 * Sequential reader with its own window, for scans in ascending offset order (big reads, nothing shared
+	 * with concurrent readers)
+	 */
+	Scanner scanner(final int windowSize) {
+		return new Scanner(windowSize);
+	}
+
+	final class Scanner {
+		private final ByteBuffer window;
+		private long base = 0; // file offset of window start
+
+		Scanner(final int windowSize) {
+			this.window = ByteBuffer.allocate(Math.max(windowSize, PREFETCH));
+			window.limit(0);
+		}
+
+		/**
+		 * Read record payload at offset into buf (flipped on return)
+		 *
+		 * @return false if record is invalid or incomplete
+		 */
+		boolean read(long offset, final ByteBuffer buf) throws IOException {
+			int pos;
+			while (true) {
+				if (!fill(offset, HEADER_LEN))
+					return false;
+				pos = (int) (offset - base);
+				if (alignBlocks && (window.get(pos) == MAGIC_PADDING)) {
+					final long next = nextBlockBoundary(offset);
+					if (next > offset) {
+						offset = next;
+						continue;
+					}
+				}
+				if ((window.getShort(pos) & 0xFFFF) != MAGIC)
+					return false;
+				break;
+			}
+			final int datalen = window.getInt(pos + 2);
+			if ((datalen < 0) || (datalen > buf.remaining()))
+				return false;
+			final int total = HEADER_LEN + datalen + FOOTER_LEN;
+			if (!fill(offset, total))
+				return false;
+			pos = (int) (offset - base);
+			if (window.get(pos + total - FOOTER_LEN) != MAGIC_FOOT)
+				return false;
+			final ByteBuffer view = window.duplicate();
+			view.limit(pos + HEADER_LEN + datalen).position(pos + HEADER_LEN);
+			buf.put(view);
+			buf.flip();
+			return true;
+		}
+
+		/**
+		 * Ensure [offset, offset + len) is in window, else read window starting at offset
+		 */
+		private final boolean fill(final long offset, final int len) throws IOException {
+			if ((offset >= base) && ((offset + len) <= (base + window.limit())))
+				return true;
+			if (len > window.capacity())
+				return false;
+			window.clear();
+			final int n = readFully(window, offset);
+			window.flip();
+			base = offset;
+			return (n >= len);
+		}
+	}
+
+	long size() throws IOException {
+		return fc.size();
+	}
+
+	@Override
+	public void close() throws IOException {
+		segments = new MappedByteBuffer[0];
+		fc.close();
+	}
+
+	private final long nextBlockBoundary(final long offset) {
+		return ((offset / blockSize) + 1) * blockSize;
+	}
+
+	private final int readFully(final ByteBuffer bb, final long position) throws IOException {
+		int total = 0;
+		while (bb.hasRemaining()) {
+			final int n = fc.read(bb, position + total);
+			if (n < 0)
+				break;
+			total += n;
+		}
+		return total;
+	}
+}
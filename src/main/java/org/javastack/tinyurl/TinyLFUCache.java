@@ -0,0 +1,525 @@
+package org.javastack.tinyurl;
+
+import java.util.HashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache with W-TinyLFU eviction (small LRU window in front of a segmented LRU, with admission
+ * decided by a count-min frequency sketch). Bounded by entries and by weight, split in independently
+ * locked segments.
+ * <p>
+ * Entries can have a time-to-live, expired entries are never returned and are removed lazily on access or
+ * by {@link #expire()} (to be run periodically).
+ */
+public class TinyLFUCache<K, V> {
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_ENTRIES = 64;
+
+	private final Segment<K, V>[] segments;
+	private final int segmentMask;
+	private final Weigher<K, V> weigher;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder expirations = new LongAdder();
+
+	public interface Weigher<K, V> {
+		int weigh(final K key, final V value);
+	}
+
+	public TinyLFUCache(final int maxEntries) {
+		this(maxEntries, Long.MAX_VALUE, null);
+	}
+
+	@SuppressWarnings("unchecked")
+	public TinyLFUCache(final int maxEntries, final long maxWeight, final Weigher<K, V> weigher) {
+		if (maxEntries <= 0)
+			throw new IllegalArgumentException("Invalid maxEntries: " + maxEntries);
+		if (maxWeight <= 0)
+			throw new IllegalArgumentException("Invalid maxWeight: " + maxWeight);
+		int count = 1;
+		while ((count < MAX_SEGMENTS) && ((maxEntries / (count << 1)) >= MIN_SEGMENT_ENTRIES)) {
+			count <<= 1;
+		}
+		this.weigher = weigher;
+		this.segmentMask = count - 1;
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<K, V>(this, //
+					Math.max(1, maxEntries / count), //
+					(maxWeight == Long.MAX_VALUE ? maxWeight : Math.max(1, maxWeight / count)));
+		}
+	}
+
+	public V get(final K key) {
+		final int hash = spread(key.hashCode());
+		final V value = segmentFor(hash).get(key, hash, System.nanoTime());
+		if (value == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return value;
+	}
+
+	public void put(final K key, final V value) {
+		put(key, value, 0);
+	}
+
+	/**
+	 * Put entry that expires after ttlMillis (0 never expires)
+	 */
+	public void put(final K key, final V value, final long ttlMillis) {
+		final int hash = spread(key.hashCode());
+		final int weight = ((weigher == null) ? 1 : weigher.weigh(key, value));
+		final long expires = ((ttlMillis > 0) ? nonZero(System.nanoTime() + (ttlMillis * 1000000L)) : 0);
+		segmentFor(hash).put(key, value, hash, weight, expires);
+	}
+
+	public V remove(final K key) {
+		final int hash = spread(key.hashCode());
+		return segmentFor(hash).remove(key);
+	}
+
+	/**
+	 * Remove expired entries
+	 *
+	 * @return number of entries removed
+	 */
+	public int expire() {
+		final long now = System.nanoTime();
+		int count = 0;
+		for (final Segment<K, V> s : segments) {
+			count += s.expire(now);
+		}
+		return count;
+	}
+
+	public void clear() {
+		for (final Segment<K, V> s : segments) {
+			s.clear();
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (final Segment<K, V> s : segments) {
+			size += s.size();
+		}
+		return size;
+	}
+
+	public long weight() {
+		long weight = 0;
+		for (final Segment<K, V> s : segments) {
+			weight += s.weight();
+		}
+		return weight;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getExpirations() {
+		return expirations.sum();
+	}
+
+	@Override
+	public String toString() {
+		final StringBuilder sb = new StringBuilder(96);
+		sb.append("size=").append(size()).append(" weight=").append(weight()) //
+				.append(" hits=").append(getHits()).append(" misses=").append(getMisses()) //
+				.append(" evictions=").append(getEvictions()).append(" expirations=").append(getExpirations());
+		return sb.toString();
+	}
+
+	private final Segment<K, V> segmentFor(final int hash) {
+		return segments[(hash >>> 16) & segmentMask];
+	}
+
+	private static final long nonZero(final long expires) {
+		return ((expires == 0) ? 1 : expires);
+	}
+
+	private static final int spread(final int h) {
+		final int x = h * 0x9E3779B9;
+		return x ^ (x >>> 16);
+	}
+
+	private static final class Node<K, V> {
+		static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+		final K key;
+		final int hash;
+		V value;
+		int weight;
+		int queue;
+		long expires; // System.nanoTime deadline, 0 never expires
+		Node<K, V> prev, next;
+
+		Node(final K key, final V value, final int hash, final int weight, final long expires) {
+			this.key = key;
+			this.value = value;
+			this.hash = hash;
+			this.weight = weight;
+			this.expires = expires;
+		}
+
+		boolean isExpired(final long now) {
+			return (expires != 0) && ((now - expires) >= 0);
+		}
+	}
+
+	private static final class AccessQueue<K, V> {
+		Node<K, V> head, tail;
+		int count;
+		long weight;
+
+		void addLast(final Node<K, V> n) {
+			n.prev = tail;
+			n.next = null;
+			if (tail == null) {
+				head = n;
+			} else {
+				tail.next = n;
+			}
+			tail = n;
+			count++;
+			weight += n.weight;
+		}
+
+		void unlink(final Node<K, V> n) {
+			if (n.prev == null) {
+				head = n.next;
+			} else {
+				n.prev.next = n.next;
+			}
+			if (n.next == null) {
+				tail = n.prev;
+			} else {
+				n.next.prev = n.prev;
+			}
+			n.prev = n.next = null;
+			count--;
+			weight -= n.weight;
+		}
+
+		void moveToLast(final Node<K, V> n) {
+			if (tail != n) {
+				unlink(n);
+				addLast(n);
+			}
+		}
+
+		void clear() {
+			head = tail = null;
+			count = 0;
+			weight = 0;
+		}
+	}
+
+	private static final class Segment<K, V> {
+		private final TinyLFUCache<K, V> owner;
+		private final ReentrantLock lock = new ReentrantLock();
+		private final HashMap<K, Node<K, V>> data = new HashMap<K, Node<K, V>>();
+		private final AccessQueue<K, V> window = new AccessQueue<K, V>();
+		private final AccessQueue<K, V> probation = new AccessQueue<K, V>();
+		private final AccessQueue<K, V> protect = new AccessQueue<K, V>();
+		private final FrequencySketch sketch;
+		private final int maxEntries, windowMaxEntries, protectMaxEntries;
+		private final long maxWeight, windowMaxWeight, protectMaxWeight;
+
+		Segment(final TinyLFUCache<K, V> owner, final int maxEntries, final long maxWeight) {
+			this.owner = owner;
+			this.maxEntries = maxEntries;
+			this.maxWeight = maxWeight;
+			// 1% window, main space split 20% probation / 80% protected
+			this.windowMaxEntries = Math.max(1, maxEntries / 100);
+			this.windowMaxWeight = Math.max(1, maxWeight / 100);
+			this.protectMaxEntries = (int) ((maxEntries - windowMaxEntries) * 0.8);
+			this.protectMaxWeight = (long) ((maxWeight - windowMaxWeight) * 0.8);
+			this.sketch = new FrequencySketch(maxEntries);
+		}
+
+		V get(final K key, final int hash, final long now) {
+			lock.lock();
+			try {
+				sketch.increment(hash);
+				final Node<K, V> n = data.get(key);
+				if (n == null)
+					return null;
+				if (n.isExpired(now)) {
+					expireNode(n);
+					return null;
+				}
+				onAccess(n);
+				return n.value;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void put(final K key, final V value, final int hash, final int weight, final long expires) {
+			lock.lock();
+			try {
+				Node<K, V> n = data.get(key);
+				if (n != null) {
+					queueOf(n).unlink(n);
+					n.value = value;
+					n.weight = weight;
+					n.expires = expires;
+					queueOf(n).addLast(n);
+					onAccess(n);
+				} else {
+					if (weight > maxWeight) {
+						return; // never fits
+					}
+					sketch.increment(hash);
+					n = new Node<K, V>(key, value, hash, weight, expires);
+					n.queue = Node.WINDOW;
+					data.put(key, n);
+					window.addLast(n);
+				}
+				evict();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		V remove(final K key) {
+			lock.lock();
+			try {
+				final Node<K, V> n = data.remove(key);
+				if (n == null)
+					return null;
+				queueOf(n).unlink(n);
+				return n.value;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int expire(final long now) {
+			lock.lock();
+			try {
+				int count = 0;
+				count += expireQueue(window, now);
+				count += expireQueue(probation, now);
+				count += expireQueue(protect, now);
+				return count;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private final int expireQueue(final AccessQueue<K, V> queue, final long now) {
+			int count = 0;
+			Node<K, V> n = queue.head;
+			while (n != null) {
+				final Node<K, V> next = n.next;
+				if (n.isExpired(now)) {
+					expireNode(n);
+					count++;
+				}
+				n = next;
+			}
+			return count;
+		}
+
+		void clear() {
+			lock.lock();
+			try {
+				data.clear();
+				window.clear();
+				probation.clear();
+				protect.clear();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		int size() {
+			lock.lock();
+			try {
+				return data.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long weight() {
+			lock.lock();
+			try {
+				return window.weight + probation.weight + protect.weight;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private final AccessQueue<K, V> queueOf(final Node<K, V> n) {
+			switch (n.queue) {
+				case Node.WINDOW:
+					return window;
+				case Node.PROBATION:
+					return probation;
+				default:
+					return protect;
+			}
+		}
+
+		private final void onAccess(final Node<K, V> n) {
+			switch (n.queue) {
+				case Node.WINDOW:
+					window.moveToLast(n);
+					break;
+				case Node.PROBATION:
+					probation.unlink(n);
+					n.queue = Node.PROTECTED;
+					protect.addLast(n);
+					// Demote the LRU of protected if it overflows
+					while (((protect.count > protectMaxEntries) || (protect.weight > protectMaxWeight))
+							&& (protect.head != n)) {
+						final Node<K, V> demoted = protect.head;
+						protect.unlink(demoted);
+						demoted.queue = Node.PROBATION;
+						probation.addLast(demoted);
+					}
+					break;
+				default:
+					protect.moveToLast(n);
+					break;
+			}
+		}
+
+		private final boolean isOverflow() {
+			return (data.size() > maxEntries)
+					|| ((window.weight + probation.weight + protect.weight) > maxWeight);
+		}
+
+		private final void evict() {
+			// Window overflow moves to probation as candidates for admission
+			Node<K, V> candidate = null;
+			while (((window.count > windowMaxEntries) || (window.weight > windowMaxWeight))
+					&& (window.head != null)) {
+				final Node<K, V> n = window.head;
+				window.unlink(n);
+				n.queue = Node.PROBATION;
+				probation.addLast(n);
+				if (candidate == null) {
+					candidate = n;
+				}
+			}
+			while (isOverflow()) {
+				Node<K, V> victim = probation.head;
+				if (victim == null) {
+					victim = (protect.head != null ? protect.head : window.head);
+				}
+				if ((candidate == null) || (candidate == victim)) {
+					if (candidate == victim) {
+						candidate = victim.next;
+					}
+					evictNode(victim);
+					continue;
+				}
+				// TinyLFU admission: keep the most frequently used
+				if (sketch.frequency(candidate.hash) > sketch.frequency(victim.hash)) {
+					evictNode(victim);
+				} else {
+					final Node<K, V> next = candidate.next;
+					evictNode(candidate);
+					candidate = next;
+				}
+			}
+		}
+
+		private final void evictNode(final Node<K, V> n) {
+			queueOf(n).unlink(n);
+			data.remove(n.key);
+			owner.evictions.increment();
+		}
+
+		private final void expireNode(final Node<K, V> n) {
+			queueOf(n).unlink(n);
+			data.remove(n.key);
+			owner.expirations.increment();
+		}
+	}
+
+	/**
+	 * Count-Min sketch with 4-bit counters, depth 4, periodically halved (aging)
+	 */
+	private static final class FrequencySketch {
+		private static final long[] SEED = {
+				0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+		};
+		private static final long RESET_MASK = 0x7777777777777777L;
+		private final long[] table;
+		private final int tableMask;
+		private final int sampleSize;
+		private int size;
+
+		FrequencySketch(final int maxEntries) {
+			int len = 16;
+			while (len < maxEntries) {
+				len <<= 1;
+			}
+			this.table = new long[len];
+			this.tableMask = len - 1;
+			this.sampleSize = 10 * len;
+		}
+
+		int frequency(final int hash) {
+			final int start = (hash & 3) << 2;
+			int freq = 15;
+			for (int i = 0; i < 4; i++) {
+				final int index = indexOf(hash, i);
+				final int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xFL);
+				freq = Math.min(freq, count);
+			}
+			return freq;
+		}
+
+		void increment(final int hash) {
+			final int start = (hash & 3) << 2;
+			boolean added = false;
+			for (int i = 0; i < 4; i++) {
+				added |= incrementAt(indexOf(hash, i), start + i);
+			}
+			if (added && (++size == sampleSize)) {
+				reset();
+			}
+		}
+
+		private final boolean incrementAt(final int i, final int j) {
+			final int offset = j << 2;
+			final long mask = (0xFL << offset);
+			if ((table[i] & mask) != mask) {
+				table[i] += (1L << offset);
+				return true;
+			}
+			return false;
+		}
+
+		private final void reset() {
+			for (int i = 0; i < table.length; i++) {
+				table[i] = (table[i] >>> 1) & RESET_MASK;
+			}
+			size >>>= 1;
+		}
+
+		private final int indexOf(final int item, final int i) {
+			long hash = (item + SEED[i]) * SEED[i];
+			hash += (hash >>> 32);
+			return ((int) hash) & tableMask;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package org.javastack.tinyurl;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Expose {@link Metrics} in Prometheus text format at <code>/metrics/&lt;metrics.key&gt;</code>, disabled if
+ * <code>metrics.key</code> is not configured
+ */
+public class TinyMetrics extends HttpServlet {
+	static final Logger log = Logger.getLogger(TinyMetrics.class);
+	private static final long serialVersionUID = 42L;
+	private static final String CFG_METRICS_KEY = "metrics.key";
+	//
+	private String metricsKey = null;
+
+	@Override
+	public void init() throws ServletException {
+		try {
+			final String configSource = System.getProperty(Config.PROP_CONFIG, Config.DEF_CONFIG_FILE);
+			final Config config = new Config(configSource);
+			metricsKey = config.get(CFG_METRICS_KEY);
+			if ((metricsKey != null) && metricsKey.isEmpty()) {
+				metricsKey = null;
+			}
+			log.info("Metrics enabled=" + (metricsKey != null));
+		} catch (Exception e) {
+			throw new ServletException(e);
+		}
+	}
+
+	@Override
+	protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+			throws ServletException, IOException {
+		if (metricsKey == null) {
+			sendError(response, HttpServletResponse.SC_NOT_FOUND, "Not Found");
+			return;
+		}
+		final String pathInfo = request.getPathInfo();
+		if ((pathInfo == null) || !pathInfo.startsWith("/") || !pathInfo.substring(1).equals(metricsKey)) {
+			sendError(response, HttpServletResponse.SC_FORBIDDEN, "Invalid Key");
+			return;
+		}
+		response.setContentType(Metrics.CONTENT_TYPE);
+		response.setHeader("Cache-Control", "no-cache");
+		final PrintWriter out = response.getWriter();
+		Metrics.write(out);
+		out.flush();
+	}
+
+	private static final void sendError(final HttpServletResponse response, final int status, final String msg)
+			throws IOException {
+		response.setContentType("text/plain; charset=ISO-8859-1");
+		response.setStatus(status);
+		response.getWriter().println(msg);
+	}
+}
@@ -18,10 +18,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.EnumMap;
-import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -52,11 +60,29 @@ public class TinyQR extends HttpServlet {
 	private static final String CFG_QR_SIZE_MIN = "qr.size.min";
 	private static final String CFG_QR_SIZE_MAX = "qr.size.max";
 	private static final String CFG_QR_SIZE_DEFAULT = "qr.size.default";
+	private static final String CFG_QR_CACHE_ENTRIES = "qr.cache.entries";
+	private static final String CFG_QR_CACHE_BYTES = "qr.cache.bytes";
+	private static final String CFG_QR_MAX_AGE = "qr.maxage.seconds";
+	private static final String CFG_QR_MODULES_ENTRIES = "qr.modules.entries";
+	private static final String CFG_QR_THREADS = "qr.threads";
+	private static final String CFG_QR_QUEUE = "qr.queue";
+	private static final int QR_MARGIN = 1; // modules
+	private static final int QR_ENTRY_OVERHEAD = 128; // bytes (aprox: node, key, etag, holder)
+	private static final char QR_RENDER_VERSION = '1'; // change if generated images change
+	private static final Metrics.Histogram qrLatency = Metrics.request("qr");
 	//
 	private Config config;
 	private String baseURL;
 	private int qrSizeMin, qrSizeMax, qrSizeDefault;
-	private LinkedHashMap<String, byte[]> qrCache;
+	private String cacheControl;
+	private TinyLFUCache<String, QRImage> qrCache;
+	private TinyLFUCache<String, QRModules> moduleCache; // input to module matrix (all sizes)
+	private ThreadPoolExecutor renderExecutor;
+	private final ConcurrentHashMap<String, CompletableFuture<QRImage>> rendering = //
+			new ConcurrentHashMap<String, CompletableFuture<QRImage>>();
+	private final LongAdder renders = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
 
 	@Override
 	public void init() throws ServletException {
@@ -81,96 +107,374 @@ public class TinyQR extends HttpServlet {
 		} else {
 			log.info("baseURL: " + baseURL);
 		}
-		// Init cache
-		qrCache = new LinkedHashMap<String, byte[]>() {
-			private static final long serialVersionUID = 42L;
+		final int maxAge = Math.max(config.getInt(CFG_QR_MAX_AGE, Constants.DEF_QR_MAX_AGE), 0);
+		cacheControl = "public, max-age=" + maxAge + ", immutable";
+		// Init cache (bounded by bytes, frequency-aware: sweeping sizes don't evict popular QRs)
+		final int cacheEntries = Math.max(config.getInt(CFG_QR_CACHE_ENTRIES, Constants.DEF_QR_CACHE_ENTRIES), 1);
+		final long cacheBytes = Math.max(Long.parseLong(config.get(CFG_QR_CACHE_BYTES, //
+				String.valueOf(Constants.DEF_QR_CACHE_BYTES)).trim()), 1);
+		qrCache = new TinyLFUCache<String, QRImage>(cacheEntries, cacheBytes,
+				new TinyLFUCache.Weigher<String, QRImage>() {
+					@Override
+					public int weigh(final String key, final QRImage value) {
+						return QR_ENTRY_OVERHEAD + (key.length() << 1) + value.png.length;
+					}
+				});
+		final int modulesEntries = Math.max(config.getInt(CFG_QR_MODULES_ENTRIES, //
+				Constants.DEF_QR_MODULES_ENTRIES), 1);
+		moduleCache = new TinyLFUCache<String, QRModules>(modulesEntries);
+		Metrics.cache("qr", qrCache);
+		Metrics.cache("qr_modules", moduleCache);
+		registerRenderMetric("rendered", renders);
+		registerRenderMetric("coalesced", coalesced);
+		registerRenderMetric("rejected", rejected);
+		log.info("QR cache config={entries=" + cacheEntries + " bytes=" + cacheBytes + " modules="
+				+ modulesEntries + "} Cache-Control: " + cacheControl);
+		// Render executor (CPU bound, don't starve container threads)
+		final int threads = Math.max(config.getInt(CFG_QR_THREADS, //
+				Runtime.getRuntime().availableProcessors()), 1);
+		final int queue = Math.max(config.getInt(CFG_QR_QUEUE, Constants.DEF_QR_QUEUE), 1);
+		renderExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(queue), new NamedThreadFactory("TinyQR-render-"));
+		renderExecutor.allowCoreThreadTimeOut(true);
+		log.info("QR render threads=" + threads + " queue=" + queue);
+	}
 
+	private static final void registerRenderMetric(final String result, final LongAdder counter) {
+		Metrics.counter("tinyurl_qr_renders_total", "QR cache misses by result", new LongSupplier() {
 			@Override
-			protected boolean removeEldestEntry(final Map.Entry<String, byte[]> eldest) {
-				return size() > 128;
+			public long getAsLong() {
+				return counter.sum();
 			}
-		};
+		}, "result", result);
 	}
 
 	@Override
 	public void destroy() {
+		log.info("QR render stats={renders=" + renders.sum() + " coalesced=" + coalesced.sum() + " rejected="
+				+ rejected.sum() + "}");
+		if (renderExecutor != null) {
+			renderExecutor.shutdown();
+			try {
+				renderExecutor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (qrCache != null) {
+			log.info("QR cache stats={" + qrCache + "}");
+			qrCache.clear();
+		}
+		if (moduleCache != null) {
+			log.info("QR modules cache stats={" + moduleCache + "}");
+			moduleCache.clear();
+		}
 	}
 
 	@Override
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
 			throws ServletException, IOException {
+		final long begin = System.nanoTime();
+		boolean async = false;
 		try {
 			MDC.put(Constants.MDC_IP, request.getRemoteAddr());
 			MDC.put(Constants.MDC_ID, getNewID());
-			doGet0(request, response);
+			async = doGet0(request, response, begin);
 		} finally {
 			MDC.clear();
+			if (!async) {
+				qrLatency.observeSince(begin);
+			}
 		}
 	}
 
-	private void doGet0(final HttpServletRequest request, final HttpServletResponse response)
-			throws ServletException, IOException {
+	/**
+	 * @return true if response is completed by async render
+	 */
+	private boolean doGet0(final HttpServletRequest request, final HttpServletResponse response,
+			final long begin) throws ServletException, IOException {
 		final int size = Math.min(qrSizeMax, Math.max(qrSizeMin, //
 				parseInt(request.getParameter("size"), qrSizeDefault)));
 		final String pathInfo = request.getPathInfo();
 		final String key = getPathInfoKey(pathInfo);
 		if (key != null) {
-			final String cacheKey = key + ":" + size;
-			byte[] qr = null;
-			synchronized (qrCache) {
-				qr = qrCache.get(cacheKey);
+			final String urlBase = getBaseURL(request);
+			final String input = urlBase + key;
+			// Image is deterministic for input and size, validate without render
+			final String etag = makeETag(input, size);
+			if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+				if (log.isDebugEnabled()) {
+					log.debug("QR not modified id=" + key);
+				}
+				sendNotModified(response, etag);
+				return false;
 			}
-			if (qr != null) {
-				log.info("QR cache found id=" + key + " size=" + qr.length);
-			} else {
-				final String urlBase = getBaseURL(request);
-				final String input = urlBase + key;
-				final long begin = System.currentTimeMillis();
-				qr = generateQR(input, size);
-				synchronized (qrCache) {
-					qrCache.put(cacheKey, qr);
+			final String cacheKey = key + ":" + size;
+			QRImage qr = qrCache.get(cacheKey);
+			if ((qr != null) && qr.etag.equals(etag)) {
+				if (log.isDebugEnabled()) {
+					log.debug("QR cache found id=" + key + " size=" + qr.png.length);
 				}
-				log.info("QR generated (" + (System.currentTimeMillis() - begin) + "ms)" //
-						+ " pixels=" + size + " length=" + qr.length + " input=" + input);
+			} else if (request.isAsyncSupported()) {
+				renderAsync(request, cacheKey, input, size, etag, begin);
+				return true;
+			} else {
+				qr = render(cacheKey, input, size, etag);
 			}
 			// Send response
 			sendResponse(response, qr);
-			return;
+			return false;
 		}
 		final PrintWriter out = response.getWriter();
 		sendError(response, out, HttpServletResponse.SC_NOT_FOUND, "Not Found");
+		return false;
+	}
+
+	private final QRImage render(final String cacheKey, final String input, final int size, final String etag)
+			throws IOException {
+		final long begin = System.currentTimeMillis();
+		final QRImage qr = new QRImage(generateQR(input, size), etag);
+		qrCache.put(cacheKey, qr);
+		renders.increment();
+		log.info("QR generated (" + (System.currentTimeMillis() - begin) + "ms)" //
+				+ " pixels=" + size + " length=" + qr.png.length + " input=" + input);
+		return qr;
+	}
+
+	/**
+	 * Render in renderExecutor, concurrent misses of same image share one render
+	 */
+	private final void renderAsync(final HttpServletRequest request, final String cacheKey, final String input,
+			final int size, final String etag, final long begin) {
+		final AsyncContext ctx = request.startAsync();
+		ctx.setTimeout(0); // Response is owned by the render until complete
+		final Responder responder = new Responder(ctx, request.getRemoteAddr(), (String) MDC.get(Constants.MDC_ID),
+				begin);
+		final CompletableFuture<QRImage> future = new CompletableFuture<QRImage>();
+		final CompletableFuture<QRImage> running = rendering.putIfAbsent(etag, future);
+		if (running != null) {
+			coalesced.increment();
+			running.whenComplete(responder);
+			return;
+		}
+		future.whenComplete(responder);
+		try {
+			renderExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						MDC.put(Constants.MDC_IP, responder.remoteAddr);
+						MDC.put(Constants.MDC_ID, responder.id);
+						QRImage qr = qrCache.get(cacheKey);
+						if ((qr == null) || !qr.etag.equals(etag)) {
+							qr = render(cacheKey, input, size, etag);
+						}
+						// Rendered image is in cache before new requests miss the in-flight render
+						rendering.remove(etag, future);
+						future.complete(qr);
+					} catch (Throwable t) {
+						rendering.remove(etag, future);
+						future.completeExceptionally(t);
+					} finally {
+						MDC.clear();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			log.warn("QR render queue full, rejected");
+			rendering.remove(etag, future);
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Send rendered image (or error) and complete AsyncContext
+	 */
+	private final class Responder implements BiConsumer<QRImage, Throwable> {
+		final AsyncContext ctx;
+		final String remoteAddr;
+		final String id;
+		final long begin; // nanos
+
+		Responder(final AsyncContext ctx, final String remoteAddr, final String id, final long begin) {
+			this.ctx = ctx;
+			this.remoteAddr = remoteAddr;
+			this.id = id;
+			this.begin = begin;
+		}
+
+		@Override
+		public void accept(final QRImage qr, final Throwable error) {
+			final HttpServletResponse response = (HttpServletResponse) ctx.getResponse();
+			try {
+				if (qr != null) {
+					sendResponse(response, qr);
+				} else if (error instanceof RejectedExecutionException) {
+					response.setHeader("Retry-After", "1");
+					sendError(response, response.getWriter(), HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+							"Service Unavailable");
+				} else {
+					log.error("QR render error: " + error, error);
+					sendError(response, response.getWriter(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+							"ERROR: Unable to generate QR");
+				}
+			} catch (Exception e) {
+				log.error("Unable to send QR response: " + e);
+			} finally {
+				try {
+					ctx.complete();
+				} catch (IllegalStateException e) {
+					// Already completed by container (client error)
+				}
+				qrLatency.observeSince(begin);
+			}
+		}
+	}
+
+	/**
+	 * Render PNG from cached module matrix (encoded once per input, scaled for each size)
+	 */
+	private final byte[] generateQR(final String input, final int size) throws IOException {
+		QRModules modules = moduleCache.get(input);
+		if (modules == null) {
+			modules = encodeModules(input);
+			moduleCache.put(input, modules);
+		}
+		return renderPNG(modules, size);
 	}
 
-	private static final byte[] generateQR(final String input, final int size) throws IOException {
+	static final byte[] renderPNG(final QRModules modules, final int size) throws IOException {
+		final BitMatrix matrix = modules.render(size, QR_MARGIN);
+		final ByteArrayOutputStream imageOut = new ByteArrayOutputStream(1024);
+		MatrixToImageWriter.writeToStream(matrix, "PNG", imageOut);
+		return imageOut.toByteArray();
+	}
+
+	/**
+	 * Encode input to QR module matrix (unscaled, without margin)
+	 */
+	static final QRModules encodeModules(final String input) throws IOException {
 		final Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
-		hints.put(EncodeHintType.MARGIN, 1);
+		hints.put(EncodeHintType.MARGIN, 0);
 		hints.put(EncodeHintType.CHARACTER_SET, "UTF-8"); // Default ISO-8859-1
 		hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.H);
 
 		try {
+			// Size 0 renders 1 pixel per module
 			final BitMatrix matrix = new QRCodeWriter().encode(input, //
 					BarcodeFormat.QR_CODE, //
-					size, size, // 300x300
+					0, 0, //
 					hints);
-			final ByteArrayOutputStream imageOut = new ByteArrayOutputStream(1024);
-			MatrixToImageWriter.writeToStream(matrix, "PNG", imageOut);
-			return imageOut.toByteArray();
+			return new QRModules(matrix);
 		} catch (WriterException e) {
 			throw new IOException(e);
 		}
 	}
 
+	/**
+	 * QR module matrix packed in bits (a few hundred bytes)
+	 */
+	static final class QRModules {
+		final int width;
+		final long[] bits;
+
+		QRModules(final BitMatrix matrix) {
+			this.width = matrix.getWidth();
+			this.bits = new long[((width * width) + 63) >>> 6];
+			for (int y = 0; y < width; y++) {
+				for (int x = 0; x < width; x++) {
+					if (matrix.get(x, y)) {
+						final int i = (y * width) + x;
+						bits[i >>> 6] |= (1L << i);
+					}
+				}
+			}
+		}
+
+		boolean get(final int x, final int y) {
+			final int i = (y * width) + x;
+			return ((bits[i >>> 6] & (1L << i)) != 0);
+		}
+
+		/**
+		 * Scale to size with quiet zone (same math as QRCodeWriter renderResult)
+		 */
+		BitMatrix render(final int size, final int quietZone) {
+			final int qrWidth = width + (quietZone << 1);
+			final int outputWidth = Math.max(size, qrWidth);
+			final int multiple = outputWidth / qrWidth;
+			final int padding = (outputWidth - (width * multiple)) / 2;
+			final BitMatrix output = new BitMatrix(outputWidth, outputWidth);
+			for (int y = 0, outputY = padding; y < width; y++, outputY += multiple) {
+				for (int x = 0, outputX = padding; x < width; x++, outputX += multiple) {
+					if (get(x, y)) {
+						output.setRegion(outputX, outputY, multiple, multiple);
+					}
+				}
+			}
+			return output;
+		}
+	}
+
 	private static final String getNewID() {
-		return UUID.randomUUID().toString();
+		return RequestID.next();
 	}
 
-	private static final void sendResponse(final HttpServletResponse response, final byte[] qr)
-			throws IOException {
+	private final void sendResponse(final HttpServletResponse response, final QRImage qr) throws IOException {
 		// Send Response
 		response.setContentType("image/png");
-		response.setContentLength(qr.length);
-		response.setHeader("Cache-Control", "public");
-		response.getOutputStream().write(qr);
+		response.setContentLength(qr.png.length);
+		response.setHeader("Cache-Control", cacheControl);
+		response.setHeader("ETag", qr.etag);
+		response.getOutputStream().write(qr.png);
+	}
+
+	private final void sendNotModified(final HttpServletResponse response, final String etag) {
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		response.setHeader("Cache-Control", cacheControl);
+		response.setHeader("ETag", etag);
+	}
+
+	/**
+	 * Strong ETag from render version, size and input (FNV-1a 64)
+	 */
+	static final String makeETag(final String input, final int size) {
+		long h = 0xcbf29ce484222325L;
+		final int len = input.length();
+		for (int i = 0; i < len; i++) {
+			h ^= input.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return "\"" + QR_RENDER_VERSION + Long.toHexString(h) + "-" + size + "\"";
+	}
+
+	/**
+	 * If-None-Match: list of entity-tags or "*" (weak comparison)
+	 */
+	static final boolean matchesETag(final String ifNoneMatch, final String etag) {
+		if ((ifNoneMatch == null) || ifNoneMatch.isEmpty())
+			return false;
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.equals("*"))
+				return true;
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals(etag))
+				return true;
+		}
+		return false;
+	}
+
+	private static final class QRImage {
+		final byte[] png;
+		final String etag;
+
+		QRImage(final byte[] png, final String etag) {
+			this.png = png;
+			this.etag = etag;
+		}
 	}
 
 	private static final void sendError(final HttpServletResponse response, final PrintWriter out,
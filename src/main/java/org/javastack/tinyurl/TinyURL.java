@@ -14,12 +14,15 @@
  */
 package org.javastack.tinyurl;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
@@ -27,11 +30,33 @@ import java.net.URL;
 import java.net.URLConnection;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
@@ -42,6 +67,7 @@ import org.apache.log4j.Logger;
 import org.apache.log4j.MDC;
 import org.javastack.kvstore.structures.btree.BplusTree.InvalidDataException;
 import org.javastack.mapexpression.InvalidExpression;
+import org.javastack.stringproperties.StringProperties;
 import org.javastack.surbl.SURBL;
 
 /**
@@ -54,24 +80,62 @@ public class TinyURL extends HttpServlet {
 	private static final long serialVersionUID = 42L;
 	//
 	private static final String CFG_STORAGE = "storage.dir";
+	private static final String CFG_STORAGE_CACHE = "storage.cache";
 	private static final String CFG_DUMP_KEY = "dump.key";
 	private static final String CFG_WHITELIST = "whitelist.file";
+	private static final String CFG_WHITELIST_RELOAD = "whitelist.reload.millis";
 	private static final String CFG_FLAGS = "check.flags";
 	private static final String CFG_CHECK_CACHE = "check.cache.millis";
+	private static final String CFG_CHECK_CACHE_NEGATIVE = "check.cache.negative.millis";
+	private static final String CFG_CHECK_CACHE_SIZE = "check.cache.size";
 	private static final String CFG_CONN_TIMEOUT = "connection.timeout.millis";
 	private static final String CFG_READ_TIMEOUT = "read.timeout.millis";
+	private static final String CFG_HASH_ALGORITHM = "hash.algorithm";
+	private static final String CFG_KEY_STRATEGY = "key.strategy";
+	private static final String CFG_KEY_BLOCK = "key.sequence.block";
+	private static final String CFG_KEY_PERMUTE = "key.sequence.permute";
+	private static final String CFG_KEY_SECRET = "key.sequence.secret";
+	private static final String CFG_KEY_DEDUP = "key.dedup";
+	private static final String CFG_SHORTEN_ASYNC = "shorten.async";
+	private static final String CFG_SHORTEN_THREADS = "shorten.threads";
+	private static final String CFG_SHORTEN_QUEUE = "shorten.queue";
+	private static final String CFG_BATCH_CHECK_THREADS = "batch.check.threads";
+	private static final String CFG_ACCESS_LOG_ASYNC = "access.log.async";
+	private static final String CFG_ACCESS_LOG_BUFFER = "access.log.buffer";
 	//
 	private static final String DEF_CHECKS = "WHITELIST,CONNECTION";
+	private static final String KEY_STRATEGY_HASH = "HASH";
+	private static final String KEY_STRATEGY_SEQUENCE = "SEQUENCE";
+	private static final String BATCH_PATH = "/batch"; // defined in web.xml
+	//
+	private static final Metrics.Histogram redirectLatency = Metrics.request("redirect");
+	private static final Metrics.Histogram dumpLatency = Metrics.request("dump");
+	private static final Metrics.Histogram shortenLatency = Metrics.request("shorten");
+	private static final Metrics.Histogram batchLatency = Metrics.request("batch");
+	private static final Metrics.Histogram loadLatency = Metrics.request("load");
+	private static final Metrics.Counter collisions = Metrics.counter("tinyurl_shorten_collisions_total",
+			"Hash collisions probed on shorten");
+	private static final Metrics.Histogram whiteListReload = Metrics.histogram(
+			"tinyurl_whitelist_reload_duration_seconds", "WhiteList reload check latency (download if modified)");
 	//
 	private Config config;
 	private String dumpKey = null;
 	private Set<CheckType> checkFlags;
-	private int connectionTimeout, readTimeout, checkCacheExpire;
+	private int connectionTimeout, readTimeout;
+	private long checkCacheExpire, checkCacheNegativeExpire;
 	private Persistence store;
+	private Persistence dedup; // URL (hash) to Key index, for sequence keys
+	private KeySequence sequence;
 	private Hasher hasher;
 	private SURBL surbl;
 	private WhiteList whiteList;
-	private LinkedHashMap<String, Integer> checkCache;
+	private TinyLFUCache<String, Boolean> checkCache; // host to valid/invalid
+	private ThreadPoolExecutor shortenExecutor;
+	private ThreadPoolExecutor batchExecutor; // connection checks of batch shortens
+	private ScheduledExecutorService maintenance;
+	private AccessLog accessLog;
+	private final SingleFlight<String, Boolean> hostChecks = new SingleFlight<String, Boolean>();
+	private final SingleFlight<String, Boolean> connectionChecks = new SingleFlight<String, Boolean>();
 
 	@Override
 	public void init() throws ServletException {
@@ -110,6 +174,22 @@ public class TinyURL extends HttpServlet {
 		connectionTimeout = Math.max(config.getInt(CFG_CONN_TIMEOUT, Constants.DEF_CONNECTION_TIMEOUT), 1000);
 		readTimeout = Math.max(config.getInt(CFG_READ_TIMEOUT, Constants.DEF_READ_TIMEOUT), 1000);
 		log.info("Timeouts connection=" + connectionTimeout + "ms read=" + readTimeout + "ms");
+		// Access Log (redirects)
+		if (config.getBoolean(CFG_ACCESS_LOG_ASYNC, false)) {
+			final int buffer = Math.max(config.getInt(CFG_ACCESS_LOG_BUFFER, Constants.DEF_ACCESS_LOG_BUFFER), 1);
+			accessLog = new AccessLog(log, buffer);
+			log.info("Access log async buffer=" + buffer);
+		} else {
+			accessLog = new AccessLog(log, 0);
+		}
+		final AccessLog access = accessLog;
+		Metrics.counter("tinyurl_access_log_dropped_total", "Access log events dropped (async buffer full)",
+				new LongSupplier() {
+					@Override
+					public long getAsLong() {
+						return access.getDropped();
+					}
+				});
 
 		// Dump Key
 		dumpKey = config.get(CFG_DUMP_KEY);
@@ -121,10 +201,15 @@ public class TinyURL extends HttpServlet {
 
 		// Check Flags
 		checkFlags = CheckType.parseFlags(config.get(CFG_FLAGS, DEF_CHECKS));
-		checkCacheExpire = (Math.max(config.getInt(CFG_CHECK_CACHE, Constants.DEF_CHECK_CACHE_EXPIRE), 1000) / 1000);
-		log.info("Check flags=" + checkFlags + " cache=" + checkCacheExpire + "seconds");
+		checkCacheExpire = Math.max(config.getInt(CFG_CHECK_CACHE, Constants.DEF_CHECK_CACHE_EXPIRE), 1000);
+		checkCacheNegativeExpire = Math.max(config.getInt(CFG_CHECK_CACHE_NEGATIVE, (int) checkCacheExpire), 1000);
+		final int checkCacheSize = Math.max(config.getInt(CFG_CHECK_CACHE_SIZE, Constants.DEF_CHECK_CACHE_SIZE), 1);
+		log.info("Check flags=" + checkFlags + " cache={size=" + checkCacheSize + " positive=" + checkCacheExpire
+				+ "ms negative=" + checkCacheNegativeExpire + "ms}");
 		// Message Digester
-		hasher = new Hasher();
+		final String hashAlgorithm = config.get(CFG_HASH_ALGORITHM, Hasher.MD5);
+		hasher = new Hasher(hashAlgorithm);
+		log.info("Hash algorithm=" + hashAlgorithm);
 		// WhiteList Check
 		if (checkFlags.contains(CheckType.WHITELIST)) {
 			// WhiteList File
@@ -145,44 +230,157 @@ public class TinyURL extends HttpServlet {
 			surbl.load();
 		}
 		// Storage
+		final String defaultClass = PersistentKVStore.class.getName();
+		final Class<?> clazz = Class.forName(config.get("storage.class", defaultClass));
 		try {
-			final String defaultClass = PersistentKVStore.class.getName();
-			final Class<?> clazz = Class.forName(config.get("storage.class", defaultClass));
-			store = (Persistence) clazz.newInstance();
+			store = new PersistentMetrics((Persistence) clazz.newInstance());
 			log.info("Storage class=" + clazz.getName());
+			if (config.getBoolean(CFG_STORAGE_CACHE, false)) {
+				store = new PersistentCache(store);
+				log.info("Storage cache enabled");
+			}
 			store.configure(config.getSubview("storage"));
 			store.open();
+			if (store instanceof PersistentCache) {
+				Metrics.cache("storage", ((PersistentCache) store).getCache());
+			}
 		} catch (IOException e) {
 			closeSilent(store);
 			throw e;
 		}
+		// Key strategy
+		final String keyStrategy = config.get(CFG_KEY_STRATEGY, KEY_STRATEGY_HASH).trim().toUpperCase();
+		if (KEY_STRATEGY_SEQUENCE.equals(keyStrategy)) {
+			final int block = Math.max(config.getInt(CFG_KEY_BLOCK, Constants.DEF_KEY_SEQUENCE_BLOCK), 1);
+			final boolean permute = config.getBoolean(CFG_KEY_PERMUTE, true);
+			final long secret = Long.parseLong(config.get(CFG_KEY_SECRET, "0"));
+			sequence = new KeySequence(store, block, permute, secret);
+			if (config.getBoolean(CFG_KEY_DEDUP, true)) {
+				final StringProperties dedupConf = new StringProperties();
+				final StringProperties storeConf = config.getSubview("storage");
+				for (final String key : storeConf.stringPropertyNames()) {
+					dedupConf.setProperty(key, storeConf.getProperty(key));
+				}
+				dedupConf.setProperty("dir", new File(storeDir, "dedup").getAbsolutePath());
+				dedupConf.setProperty("table", "dedup");
+				try {
+					dedup = (Persistence) clazz.newInstance();
+					dedup.configure(dedupConf);
+					dedup.open();
+				} catch (IOException e) {
+					closeSilent(dedup);
+					closeSilent(store);
+					throw e;
+				}
+			}
+			log.info("Key strategy=" + keyStrategy + " block=" + block + " permute=" + permute + " dedup="
+					+ (dedup != null));
+		} else if (KEY_STRATEGY_HASH.equals(keyStrategy)) {
+			log.info("Key strategy=" + keyStrategy);
+		} else {
+			closeSilent(store);
+			throw new IllegalArgumentException("Invalid " + CFG_KEY_STRATEGY + ": " + keyStrategy);
+		}
+		// Background maintenance (a slow WhiteList download don't delay cache expiration)
+		maintenance = Executors.newScheduledThreadPool(2, new NamedThreadFactory("TinyURL-maintenance-"));
+		// WhiteList reload
+		if (whiteList != null) {
+			final long reloadInterval = Math.max(config.getInt(CFG_WHITELIST_RELOAD, Constants.DEF_WHITELIST_RELOAD),
+					1000);
+			maintenance.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					final long begin = System.nanoTime();
+					final boolean reloaded = whiteList.reload();
+					whiteListReload.observeSince(begin);
+					if (reloaded && (checkCache != null)) {
+						checkCache.clear(); // Cached checks can be stale
+					}
+				}
+			}, reloadInterval, reloadInterval, TimeUnit.MILLISECONDS);
+			Metrics.gauge("tinyurl_whitelist_last_load_timestamp_seconds", "Time of last WhiteList load",
+					new DoubleSupplier() {
+						@Override
+						public double getAsDouble() {
+							return whiteList.getLastReload() / 1000d;
+						}
+					});
+			Metrics.gauge("tinyurl_whitelist_last_load_duration_seconds", "Duration of last WhiteList load",
+					new DoubleSupplier() {
+						@Override
+						public double getAsDouble() {
+							return whiteList.getLastReloadMillis() / 1000d;
+						}
+					});
+			log.info("WhiteList reload=" + reloadInterval + "ms");
+		}
 		// Check cache
 		if (!checkFlags.isEmpty()) {
-			checkCache = new LinkedHashMap<String, Integer>() {
-				private static final long serialVersionUID = 42L;
-
+			checkCache = new TinyLFUCache<String, Boolean>(checkCacheSize);
+			Metrics.cache("check", checkCache);
+			final long expireInterval = Math.min(checkCacheExpire, checkCacheNegativeExpire);
+			maintenance.scheduleWithFixedDelay(new Runnable() {
 				@Override
-				protected boolean removeEldestEntry(final Map.Entry<String, Integer> eldest) {
-					return size() > 128;
+				public void run() {
+					checkCache.expire();
 				}
-			};
+			}, expireInterval, expireInterval, TimeUnit.MILLISECONDS);
+		}
+		// Async shorten (validation and storage out of container threads)
+		if (config.getBoolean(CFG_SHORTEN_ASYNC, false)) {
+			final int threads = Math.max(config.getInt(CFG_SHORTEN_THREADS, Constants.DEF_SHORTEN_THREADS), 1);
+			final int queue = Math.max(config.getInt(CFG_SHORTEN_QUEUE, Constants.DEF_SHORTEN_QUEUE), 1);
+			shortenExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(queue), new NamedThreadFactory("TinyURL-shorten-"));
+			shortenExecutor.allowCoreThreadTimeOut(true);
+			log.info("Shorten async threads=" + threads + " queue=" + queue);
+		}
+		// Batch connection checks in own pool, a batch never takes threads or queue of single shortens
+		final int batchThreads = config.getInt(CFG_BATCH_CHECK_THREADS, Constants.DEF_BATCH_CHECK_THREADS);
+		if (checkFlags.contains(CheckType.CONNECTION) && (batchThreads > 0)) {
+			batchExecutor = new ThreadPoolExecutor(batchThreads, batchThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<Runnable>(Constants.BATCH_CHUNK), new NamedThreadFactory("TinyURL-batch-"));
+			batchExecutor.allowCoreThreadTimeOut(true);
+			log.info("Batch checks threads=" + batchThreads);
 		}
 	}
 
 	@Override
 	public void destroy() {
+		log.info("Checks host={executed=" + hostChecks.getExecuted() + " coalesced=" + hostChecks.getCoalesced()
+				+ "} connection={executed=" + connectionChecks.getExecuted() + " coalesced="
+				+ connectionChecks.getCoalesced() + "}");
+		if (checkCache != null) {
+			log.info("Check cache stats={" + checkCache + "}");
+		}
+		if (maintenance != null) {
+			maintenance.shutdownNow();
+		}
+		shutdown(shortenExecutor);
+		shutdown(batchExecutor);
+		if (accessLog != null) {
+			accessLog.close();
+			if (accessLog.isAsync()) {
+				log.info("Access log dropped=" + accessLog.getDropped());
+			}
+		}
+		closeSilent(dedup);
 		closeSilent(store);
 	}
 
 	@Override
 	protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
 			throws ServletException, IOException {
+		final long begin = System.nanoTime();
 		try {
 			MDC.put(Constants.MDC_IP, request.getRemoteAddr());
 			MDC.put(Constants.MDC_ID, getNewID());
 			doGet0(request, response);
 		} finally {
 			MDC.clear();
+			final String pathInfo = request.getPathInfo();
+			final boolean dump = ((pathInfo != null) && pathInfo.startsWith("/dump/"));
+			(dump ? dumpLatency : redirectLatency).observeSince(begin);
 		}
 	}
 
@@ -192,8 +390,7 @@ public class TinyURL extends HttpServlet {
 		if (dumpKey != null) {
 			if (pathInfo.startsWith("/dump/")) {
 				if (pathInfo.substring(6).equals(dumpKey)) {
-					response.setContentType("text/csv; charset=ISO-8859-1");
-					store.dump(response.getOutputStream());
+					doGetDump(request, response);
 					return;
 				}
 				final PrintWriter out = response.getWriter();
@@ -205,7 +402,7 @@ public class TinyURL extends HttpServlet {
 		if (key != null) {
 			final TinyData meta = store.get(key);
 			if (meta != null) {
-				log.info("Found id=" + key + " url=" + meta.getURL());
+				accessLog.found(key, meta.getURL());
 				// Found - send response
 				response.sendRedirect(meta.getURL());
 				return;
@@ -215,15 +412,268 @@ public class TinyURL extends HttpServlet {
 		sendError(response, out, HttpServletResponse.SC_NOT_FOUND, "Not Found");
 	}
 
+	/**
+	 * Dump all storage, or incremental (parameters: <code>since</code> unix epoch seconds, <code>cursor</code>
+	 * of last received row), gzip compressed if accepted by client
+	 */
+	private void doGetDump(final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException {
+		final String sinceParam = request.getParameter("since");
+		final String cursor = request.getParameter("cursor");
+		final boolean incremental = ((sinceParam != null) || (cursor != null));
+		long since = 0;
+		if (incremental) {
+			try {
+				since = ((sinceParam == null) ? 0 : Long.parseLong(sinceParam));
+			} catch (NumberFormatException e) {
+				sendError(response, response.getWriter(), HttpServletResponse.SC_BAD_REQUEST, "Invalid since");
+				return;
+			}
+		}
+		final String gzip = gzipEncoding(request.getHeader("Accept-Encoding"));
+		response.setContentType("text/csv; charset=ISO-8859-1");
+		response.setHeader("Vary", "Accept-Encoding");
+		OutputStream out = response.getOutputStream();
+		GZIPOutputStream gz = null;
+		if (gzip != null) {
+			response.setHeader("Content-Encoding", gzip);
+			gz = new GZIPOutputStream(out, 0x10000);
+			out = new BufferedOutputStream(gz, 0x10000);
+		}
+		try {
+			if (incremental) {
+				store.dump(out, since, cursor);
+			} else {
+				store.dump(out);
+			}
+		} catch (IllegalArgumentException e) {
+			if (response.isCommitted())
+				throw e;
+			response.reset();
+			sendError(response, response.getWriter(), HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+			return;
+		} catch (UnsupportedOperationException e) {
+			if (response.isCommitted())
+				throw e;
+			response.reset();
+			sendError(response, response.getWriter(), HttpServletResponse.SC_NOT_IMPLEMENTED,
+					"Incremental dump not supported");
+			return;
+		}
+		out.flush();
+		if (gz != null) {
+			gz.finish();
+		}
+	}
+
+	/**
+	 * Content coding of gzip accepted in Accept-Encoding header (RFC 7231): gzip or x-gzip (name used by
+	 * client), or * if gzip is not listed, with q &gt; 0
+	 *
+	 * @return coding for Content-Encoding, null if gzip is not accepted
+	 */
+	static final String gzipEncoding(final String acceptEncoding) {
+		if (acceptEncoding == null)
+			return null;
+		String accepted = null;
+		boolean refused = false, any = false;
+		for (final String element : acceptEncoding.split(",")) {
+			final int semi = element.indexOf(';');
+			final String coding = ((semi < 0) ? element : element.substring(0, semi)).trim()
+					.toLowerCase(Locale.ENGLISH);
+			final boolean q = ((semi < 0) || (qvalue(element.substring(semi + 1)) > 0));
+			if ("gzip".equals(coding) || "x-gzip".equals(coding)) {
+				if (!q) {
+					refused = true;
+				} else if ((accepted == null) || "gzip".equals(coding)) {
+					accepted = coding;
+				}
+			} else if ("*".equals(coding)) {
+				any = q;
+			}
+		}
+		if (accepted != null)
+			return accepted;
+		return ((any && !refused) ? "gzip" : null);
+	}
+
+	/**
+	 * Weight of Accept-* parameters (<code>q=0.5</code>), 1 if not present or invalid
+	 */
+	private static final double qvalue(final String params) {
+		for (final String param : params.split(";")) {
+			final int eq = param.indexOf('=');
+			if ((eq < 0) || !"q".equalsIgnoreCase(param.substring(0, eq).trim()))
+				continue;
+			try {
+				return Double.parseDouble(param.substring(eq + 1).trim());
+			} catch (NumberFormatException e) {
+				return 1;
+			}
+		}
+		return 1;
+	}
+
 	@Override
 	protected void doPost(final HttpServletRequest request, final HttpServletResponse response)
 			throws ServletException, IOException {
+		final long begin = System.nanoTime();
+		if (BATCH_PATH.equals(request.getServletPath())) {
+			try {
+				MDC.put(Constants.MDC_IP, request.getRemoteAddr());
+				MDC.put(Constants.MDC_ID, getNewID());
+				doPostBatch(request, response);
+			} finally {
+				MDC.clear();
+				batchLatency.observeSince(begin);
+			}
+			return;
+		}
+		final String pathInfo = request.getPathInfo();
+		if ((dumpKey != null) && (pathInfo != null) && pathInfo.startsWith("/load/")) {
+			try {
+				MDC.put(Constants.MDC_IP, request.getRemoteAddr());
+				MDC.put(Constants.MDC_ID, getNewID());
+				doPostLoad(request, response, pathInfo.substring(6));
+			} finally {
+				MDC.clear();
+				loadLatency.observeSince(begin);
+			}
+			return;
+		}
+		if ((shortenExecutor != null) && request.isAsyncSupported()) {
+			doPostAsync(request, response, begin);
+			return;
+		}
 		try {
 			MDC.put(Constants.MDC_IP, request.getRemoteAddr());
 			MDC.put(Constants.MDC_ID, getNewID());
 			doPost0(request, response);
 		} finally {
 			MDC.clear();
+			shortenLatency.observeSince(begin);
+		}
+	}
+
+	private void doPostAsync(final HttpServletRequest request, final HttpServletResponse response,
+			final long begin) throws IOException {
+		final AsyncContext ctx = request.startAsync();
+		final AsyncShorten task = new AsyncShorten(ctx, request.getRemoteAddr(), getNewID(), begin);
+		// Validation is bounded by connection/read timeouts, the rest is queue wait and storage
+		ctx.setTimeout(connectionTimeout + readTimeout + Constants.SHORTEN_TIMEOUT_MARGIN);
+		ctx.addListener(task);
+		try {
+			shortenExecutor.execute(task);
+		} catch (RejectedExecutionException e) {
+			log.warn("Shorten queue full, rejected");
+			task.abort(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service Unavailable");
+		}
+	}
+
+	/**
+	 * Shorten running in shortenExecutor, response completed from AsyncContext
+	 */
+	private final class AsyncShorten implements Runnable, AsyncListener {
+		private final AsyncContext ctx;
+		private final String remoteAddr;
+		private final String id;
+		private final long begin; // nanos
+		private final AtomicBoolean claimed = new AtomicBoolean(); // response owner: task or abort
+		private final AtomicBoolean done = new AtomicBoolean();
+		private final CountDownLatch finished = new CountDownLatch(1);
+
+		AsyncShorten(final AsyncContext ctx, final String remoteAddr, final String id, final long begin) {
+			this.ctx = ctx;
+			this.remoteAddr = remoteAddr;
+			this.id = id;
+			this.begin = begin;
+		}
+
+		@Override
+		public void run() {
+			if (!claimed.compareAndSet(false, true))
+				return;
+			try {
+				MDC.put(Constants.MDC_IP, remoteAddr);
+				MDC.put(Constants.MDC_ID, id);
+				doPost0((HttpServletRequest) ctx.getRequest(), (HttpServletResponse) ctx.getResponse());
+			} catch (Exception e) {
+				log.error("Shorten error: " + e, e);
+				final HttpServletResponse response = (HttpServletResponse) ctx.getResponse();
+				if (!response.isCommitted()) {
+					try {
+						response.reset();
+						sendError(response, response.getWriter(), HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+								"ERROR: Unable to Short URL");
+					} catch (Exception ign) {
+					}
+				}
+			} finally {
+				MDC.clear();
+				complete();
+				finished.countDown();
+			}
+		}
+
+		/**
+		 * Answer with error if task is not running
+		 *
+		 * @return false if task already owns the response
+		 */
+		boolean abort(final int status, final String msg) {
+			if (!claimed.compareAndSet(false, true))
+				return false;
+			final HttpServletResponse response = (HttpServletResponse) ctx.getResponse();
+			try {
+				if (status == HttpServletResponse.SC_SERVICE_UNAVAILABLE) {
+					response.setHeader("Retry-After", "1");
+				}
+				sendError(response, response.getWriter(), status, msg);
+			} catch (Exception e) {
+				log.error("Unable to send error: " + e);
+			} finally {
+				complete();
+			}
+			return true;
+		}
+
+		private void complete() {
+			if (done.compareAndSet(false, true)) {
+				try {
+					ctx.complete();
+				} catch (IllegalStateException e) {
+					// Already completed by container (client error)
+				}
+			}
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) {
+			if (abort(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Service Unavailable")) {
+				log.warn("Shorten timeout in queue, rejected");
+				return;
+			}
+			// Running task owns the response and completes it (bounded by connection/read timeouts)
+			try {
+				finished.await(connectionTimeout + readTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) {
+			claimed.set(true);
+			done.set(true);
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) {
+			shortenLatency.observeSince(begin);
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {
 		}
 	}
 
@@ -235,108 +685,549 @@ public class TinyURL extends HttpServlet {
 			sendError(response, out, HttpServletResponse.SC_BAD_REQUEST, "Invalid URL Parameter");
 			return;
 		}
+		if (sequence != null) {
+			doPostSequence(response, out, url);
+			return;
+		}
 		String key = hasher.hashURL(url);
 		int collision = 0;
+		boolean checked = false;
 		while (true) { // Handle possible collisions
-			final TinyData meta = store.get(key);
-			// Dont exists
-			if (meta == null)
-				break;
+			// Lookup until URL is validated, then atomic insert (concurrent shortens of same key)
+			final TinyData meta = (checked ? store.putIfAbsent(key, url) : store.get(key));
+			if (meta == null) {
+				if (checked)
+					break; // Stored
+				// Check URL validity (only for new URLs)
+				if (!checkURL(response, out, url))
+					return;
+				checked = true;
+				continue;
+			}
 			// Duplicated
 			if (url.equals(meta.getURL())) {
 				sendResponse(response, out, url, key, collision, false);
 				return;
 			}
 			// Collision
+			collisions.increment();
 			if (++collision > Constants.MAX_COLLISION) {
 				log.error("Too many collisions { url=" + url + " id=" + key + " }");
 				sendError(response, out, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
 						"ERROR: Unable to Short URL");
 				return;
 			}
-			key = hasher.hashURL(Integer.toString(collision) + ":" + url);
+			key = hasher.hashURL(url, collision);
+		}
+		sendResponse(response, out, url, key, collision, true);
+	}
+
+	/**
+	 * Bulk import of CSV in dump format (streamed upload), protected by dump key
+	 */
+	private void doPostLoad(final HttpServletRequest request, final HttpServletResponse response,
+			final String key) throws IOException {
+		final PrintWriter out = response.getWriter();
+		if (!key.equals(dumpKey)) {
+			sendError(response, out, HttpServletResponse.SC_FORBIDDEN, "Invalid Key");
+			return;
+		}
+		final long begin = System.nanoTime();
+		final long rows;
+		try {
+			rows = store.load(request.getInputStream());
+		} catch (IOException e) {
+			log.error("Load error: " + e, e);
+			sendError(response, out, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "ERROR: Unable to Load");
+			return;
+		}
+		final long elapsed = Math.max(1, (System.nanoTime() - begin) / 1000000);
+		log.info("Load rows=" + rows + " time=" + elapsed + "ms");
+		response.setContentType("text/plain; charset=ISO-8859-1");
+		out.println("loaded=" + rows + " time=" + elapsed + "ms rate=" + (rows * 1000 / elapsed) + " rows/s");
+	}
+
+	/**
+	 * Batch endpoints, request and response are streamed (one item per line, processed in chunks):
+	 * <ul>
+	 * <li>/batch/shorten: URLs, response <code>{ "url": "...", "id": "..." }</code></li>
+	 * <li>/batch/resolve: Keys, response <code>{ "id": "...", "url": "..." }</code></li>
+	 * </ul>
+	 * Items with errors have an <code>"error"</code> field.
+	 */
+	private void doPostBatch(final HttpServletRequest request, final HttpServletResponse response)
+			throws IOException {
+		final String pathInfo = request.getPathInfo();
+		final boolean shorten = "/shorten".equals(pathInfo);
+		if (!shorten && !"/resolve".equals(pathInfo)) {
+			sendError(response, response.getWriter(), HttpServletResponse.SC_NOT_FOUND, "Not Found");
+			return;
+		}
+		if (shorten && (sequence != null)) {
+			sendError(response, response.getWriter(), HttpServletResponse.SC_NOT_IMPLEMENTED,
+					"Batch shorten not supported with " + CFG_KEY_STRATEGY + "=" + KEY_STRATEGY_SEQUENCE);
+			return;
+		}
+		request.setCharacterEncoding("UTF-8");
+		response.setCharacterEncoding("UTF-8");
+		response.setContentType("application/x-ndjson; charset=UTF-8");
+		final BufferedReader in = request.getReader();
+		final PrintWriter out = response.getWriter();
+		final ArrayList<BatchItem> chunk = new ArrayList<BatchItem>(Constants.BATCH_CHUNK);
+		final long begin = System.currentTimeMillis();
+		long total = 0;
+		String line = null;
+		while (true) {
+			line = in.readLine();
+			if (line != null) {
+				line = line.trim();
+				if (!line.isEmpty()) {
+					chunk.add(new BatchItem(line));
+				}
+			}
+			if ((chunk.size() >= Constants.BATCH_CHUNK) || ((line == null) && !chunk.isEmpty())) {
+				if (shorten) {
+					shortenBatch(chunk);
+				} else {
+					resolveBatch(chunk);
+				}
+				final StringBuilder sb = new StringBuilder(128);
+				for (final BatchItem item : chunk) {
+					sb.setLength(0);
+					item.toJSON(sb, shorten);
+					out.println(sb);
+				}
+				out.flush();
+				total += chunk.size();
+				chunk.clear();
+			}
+			if (line == null)
+				break;
+		}
+		log.info("Batch " + pathInfo.substring(1) + " items=" + total + " time="
+				+ (System.currentTimeMillis() - begin) + "ms");
+	}
+
+	private void resolveBatch(final List<BatchItem> items) throws IOException {
+		final ArrayList<String> keys = new ArrayList<String>(items.size());
+		for (final BatchItem item : items) {
+			item.key = getPathInfoKey("/" + item.input);
+			if (item.key == null) {
+				item.key = item.input;
+				item.error = "Invalid Key";
+			} else {
+				keys.add(item.key);
+			}
+		}
+		final Map<String, TinyData> found = store.getAll(keys);
+		for (final BatchItem item : items) {
+			if (item.error != null)
+				continue;
+			final TinyData meta = found.get(item.key);
+			if (meta == null) {
+				item.error = "Not Found";
+			} else {
+				item.url = meta.getURL();
+			}
+		}
+	}
+
+	private void shortenBatch(final List<BatchItem> items) throws IOException {
+		List<BatchItem> pending = new ArrayList<BatchItem>(items.size());
+		for (final BatchItem item : items) {
+			item.url = item.input;
+			if (item.url.length() < Constants.MIN_URL_LENGTH) {
+				item.error = "Invalid URL Parameter";
+				continue;
+			}
+			item.key = hasher.hashURL(item.url);
+			pending.add(item);
+		}
+		int reused = 0, created = 0;
+		while (!pending.isEmpty()) {
+			final ArrayList<BatchItem> next = new ArrayList<BatchItem>();
+			// Lookup keys of items not yet validated
+			final ArrayList<String> keys = new ArrayList<String>(pending.size());
+			for (final BatchItem item : pending) {
+				if (!item.checked)
+					keys.add(item.key);
+			}
+			final Map<String, TinyData> found = (keys.isEmpty() ? Collections.<String, TinyData> emptyMap()
+					: store.getAll(keys));
+			final ArrayList<BatchItem> check = new ArrayList<BatchItem>();
+			final LinkedHashMap<String, BatchItem> stores = new LinkedHashMap<String, BatchItem>();
+			final ArrayList<BatchItem> sameKey = new ArrayList<BatchItem>();
+			for (final BatchItem item : pending) {
+				if (item.checked) {
+					addBatchStore(stores, sameKey, next, item);
+					continue;
+				}
+				final TinyData meta = found.get(item.key);
+				if (meta == null) {
+					check.add(item);
+				} else if (item.url.equals(meta.getURL())) {
+					reused++; // Duplicated
+				} else if (nextCollision(item)) {
+					next.add(item);
+				}
+			}
+			// Check URL validity (grouped by host)
+			for (final BatchItem item : checkBatch(check)) {
+				addBatchStore(stores, sameKey, next, item);
+			}
+			// Store new URLs (atomic, concurrent shortens of same key)
+			if (!stores.isEmpty()) {
+				final HashMap<String, String> mappings = new HashMap<String, String>(stores.size() * 4 / 3 + 1);
+				for (final BatchItem item : stores.values()) {
+					mappings.put(item.key, item.url);
+				}
+				final Map<String, TinyData> collisions = store.putAll(mappings);
+				for (final BatchItem item : stores.values()) {
+					if (!collisions.containsKey(item.key)) {
+						created++;
+					} else if (nextCollision(item)) {
+						next.add(item);
+					}
+				}
+				// Same URL twice in batch, follow the stored one
+				for (final BatchItem item : sameKey) {
+					if (!collisions.containsKey(item.key)) {
+						reused++;
+					} else if (nextCollision(item)) {
+						next.add(item);
+					}
+				}
+			}
+			pending = next;
+		}
+		log.info("Batch shorten chunk items=" + items.size() + " new=" + created + " reuse=" + reused);
+	}
+
+	private final void addBatchStore(final Map<String, BatchItem> stores, final List<BatchItem> sameKey,
+			final List<BatchItem> next, final BatchItem item) {
+		final BatchItem other = stores.get(item.key);
+		if (other == null) {
+			stores.put(item.key, item);
+		} else if (other.url.equals(item.url)) {
+			sameKey.add(item);
+		} else if (nextCollision(item)) {
+			next.add(item);
+		}
+	}
+
+	private final boolean nextCollision(final BatchItem item) {
+		collisions.increment();
+		if (++item.collision > Constants.MAX_COLLISION) {
+			log.error("Too many collisions { url=" + item.url + " id=" + item.key + " }");
+			item.error = "ERROR: Unable to Short URL";
+			return false;
+		}
+		item.key = hasher.hashURL(item.url, item.collision);
+		return true;
+	}
+
+	/**
+	 * Validate URLs, host checks once for each host, connection checks in batchExecutor (if available, in
+	 * caller thread if its queue is full)
+	 *
+	 * @return valid items
+	 */
+	private final List<BatchItem> checkBatch(final List<BatchItem> items) {
+		final ArrayList<BatchItem> valid = new ArrayList<BatchItem>(items.size());
+		final LinkedHashMap<String, List<BatchItem>> hosts = new LinkedHashMap<String, List<BatchItem>>();
+		for (final BatchItem item : items) {
+			try {
+				item.parsed = new URL(item.url);
+			} catch (MalformedURLException e) {
+				item.error = invalidURL(e);
+				continue;
+			}
+			List<BatchItem> group = hosts.get(item.parsed.getHost());
+			if (group == null) {
+				group = new ArrayList<BatchItem>();
+				hosts.put(item.parsed.getHost(), group);
+			}
+			group.add(item);
+		}
+		final ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+		for (final Map.Entry<String, List<BatchItem>> e : hosts.entrySet()) {
+			if ((whiteList != null) || (surbl != null)) {
+				try {
+					checkHost(e.getKey());
+				} catch (Exception ex) {
+					for (final BatchItem item : e.getValue()) {
+						item.error = invalidURL(ex);
+					}
+					continue;
+				}
+			}
+			for (final BatchItem item : e.getValue()) {
+				final Runnable task = new Runnable() {
+					@Override
+					public void run() {
+						try {
+							checkURLConnection(item.parsed);
+						} catch (Exception ex) {
+							item.error = invalidURL(ex);
+						}
+					}
+				};
+				if (batchExecutor == null) {
+					task.run();
+					continue;
+				}
+				try {
+					futures.add(batchExecutor.submit(task));
+				} catch (RejectedExecutionException ex) {
+					task.run();
+				}
+			}
+		}
+		for (final Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				log.error("Batch check error: " + e, e);
+			}
+		}
+		for (final BatchItem item : items) {
+			if (item.error == null) {
+				item.checked = true;
+				valid.add(item);
+			} else {
+				log.error("Invalid URL: " + item.url + " " + item.error);
+			}
+		}
+		return valid;
+	}
+
+	private static final String invalidURL(final Exception e) {
+		if (e instanceof IOException) {
+			return "Invalid URL (" + e.getClass().getSimpleName() + ": " + e.getMessage() + ")";
+		}
+		return "Invalid URL (" + e.getClass().getSimpleName() + ")";
+	}
+
+	private static final class BatchItem {
+		final String input;
+		String url;
+		URL parsed;
+		String key;
+		int collision;
+		boolean checked;
+		volatile String error;
+
+		BatchItem(final String input) {
+			this.input = input;
+		}
+
+		void toJSON(final StringBuilder sb, final boolean shorten) {
+			sb.append("{ ");
+			if (shorten) {
+				appendJSON(sb, "url", input);
+				sb.append(", ");
+				appendJSON(sb, (error == null ? "id" : "error"), (error == null ? key : error));
+			} else {
+				appendJSON(sb, "id", input);
+				sb.append(", ");
+				appendJSON(sb, (error == null ? "url" : "error"), (error == null ? url : error));
+			}
+			sb.append(" }");
+		}
+
+		private static final void appendJSON(final StringBuilder sb, final String name, final String value) {
+			sb.append('"').append(name).append("\": \"");
+			final int len = value.length();
+			for (int i = 0; i < len; i++) {
+				final char c = value.charAt(i);
+				switch (c) {
+					case '"':
+					case '\\':
+						sb.append('\\').append(c);
+						break;
+					default:
+						if (c < 0x20) {
+							sb.append(String.format("\\u%04x", (int) c));
+						} else {
+							sb.append(c);
+						}
+				}
+			}
+			sb.append('"');
+		}
+	}
+
+	private void doPostSequence(final HttpServletResponse response, final PrintWriter out, final String url)
+			throws IOException {
+		String dedupKey = null;
+		if (dedup != null) {
+			// Search URL in index (by hash, handle possible collisions)
+			for (int collision = 0; collision <= Constants.MAX_COLLISION; collision++) {
+				final String hashKey = hasher.hashURL(url, collision);
+				final TinyData ref = dedup.get(hashKey);
+				if (ref == null) {
+					dedupKey = hashKey;
+					break;
+				}
+				final TinyData meta = store.get(ref.getURL());
+				if ((meta != null) && url.equals(meta.getURL())) {
+					sendResponse(response, out, url, ref.getURL(), collision, false);
+					return;
+				}
+			}
 		}
 		// Check URL validity
+		if (!checkURL(response, out, url))
+			return;
+		// Store new URL (never overwrite: keys of other strategy can be in storage, skip to next leased key)
+		String key = sequence.nextKey();
+		int skipped = 0;
+		while (store.putIfAbsent(key, url) != null) {
+			collisions.increment();
+			if (++skipped > Constants.MAX_COLLISION) {
+				log.error("Too many occupied sequence keys { url=" + url + " id=" + key + " }");
+				sendError(response, out, HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+						"ERROR: Unable to Short URL");
+				return;
+			}
+			key = sequence.nextKey();
+		}
+		if (dedupKey != null) {
+			// Keep entry of a concurrent shorten (maybe other URL with same hash)
+			dedup.putIfAbsent(dedupKey, key);
+		}
+		sendResponse(response, out, url, key, 0, true);
+	}
+
+	private final boolean checkURL(final HttpServletResponse response, final PrintWriter out, final String url) {
 		try {
 			checkURL(new URL(url));
+			return true;
 		} catch (IOException e) {
 			log.error("Invalid URL: " + e);
 			sendError(response, out, HttpServletResponse.SC_BAD_REQUEST, "Invalid URL ("
 					+ e.getClass().getSimpleName() + ": " + e.getMessage() + ")");
-			return;
 		} catch (Exception e) {
 			log.error("Invalid URL: " + e, e);
 			sendError(response, out, HttpServletResponse.SC_BAD_REQUEST, "Invalid URL ("
 					+ e.getClass().getSimpleName() + ")");
-			return;
 		}
-		// Store new URL
-		store.put(key, url);
-		sendResponse(response, out, url, key, collision, true);
+		return false;
 	}
 
 	private final void checkURL(final URL url) throws IOException {
 		if (checkFlags.isEmpty())
 			return;
-		final int now = (int) (System.currentTimeMillis() / 1000);
-		final Integer ts;
-		synchronized (checkCache) {
-			ts = checkCache.get(url.getHost());
-		}
-		boolean checkHost = true;
-		if (ts != null) {
-			final int cacheTs = Math.abs(ts.intValue());
-			final boolean cacheNegative = (ts.intValue() < 0);
-			if ((cacheTs + checkCacheExpire) > now) {
-				if (cacheNegative) {
-					throw new MalformedURLException("Invalid URL (Cache)");
-				} else {
-					checkHost = false; // Valid URL (Cache)
+		if ((whiteList != null) || (surbl != null)) {
+			checkHost(url.getHost());
+		}
+		checkURLConnection(url);
+	}
+
+	private final void checkURLConnection(final URL url) throws IOException {
+		if (checkFlags.contains(CheckType.CONNECTION)) {
+			// Same URL (viral links) is checked once for all concurrent requests
+			singleFlight(connectionChecks, url.toExternalForm(), new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws IOException {
+					checkConnection(url);
+					return Boolean.TRUE;
 				}
+			});
+		}
+	}
+
+	private final void checkHost(final String host) throws IOException {
+		final Boolean valid = checkCache.get(host);
+		if (valid != null) {
+			if (!valid.booleanValue()) {
+				throw new MalformedURLException("Invalid URL (Cache)");
 			}
+			return; // Valid URL (Cache)
+		}
+		// Only one check for each host, concurrent requests share result
+		singleFlight(hostChecks, host, new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws IOException {
+				checkHostUncached(host);
+				return Boolean.TRUE;
+			}
+		});
+	}
+
+	private final void checkHostUncached(final String host) throws IOException {
+		if ((whiteList != null) && !whiteList.checkWhiteList(host)) {
+			checkCache.put(host, Boolean.FALSE, checkCacheNegativeExpire);
+			throw new WhiteListNotFoundException("Domain not in WhiteList: " + host);
 		}
+		if ((surbl != null) && surbl.checkSURBL(host)) {
+			checkCache.put(host, Boolean.FALSE, checkCacheNegativeExpire);
+			throw new SpamDomainException("Spam domain detected: " + host);
+		}
+		checkCache.put(host, Boolean.TRUE, checkCacheExpire);
+	}
+
+	/**
+	 * Check cache (host validations) or null if checks are disabled
+	 */
+	public TinyLFUCache<String, Boolean> getCheckCache() {
+		return checkCache;
+	}
+
+	private final void checkConnection(final URL url) throws IOException {
 		InputStream is = null;
-		URLConnection conn = null;
 		try {
-			if (checkHost) {
-				if ((whiteList != null) && !whiteList.checkWhiteList(url.getHost())) {
-					synchronized (checkCache) {
-						checkCache.put(url.getHost(), Integer.valueOf(-now));
-					}
-					throw new WhiteListNotFoundException("Domain not in WhiteList: " + url.getHost());
-				}
-				if ((surbl != null) && surbl.checkSURBL(url.getHost())) {
-					synchronized (checkCache) {
-						checkCache.put(url.getHost(), Integer.valueOf(-now));
-					}
-					throw new SpamDomainException("Spam domain detected: " + url.getHost());
-				}
-			}
-			if (checkFlags.contains(CheckType.CONNECTION)) {
-				conn = url.openConnection();
-				conn.setConnectTimeout(connectionTimeout);
-				conn.setReadTimeout(readTimeout);
-				conn.setDoOutput(false);
-				conn.setUseCaches(true);
-				conn.connect();
-				is = conn.getInputStream();
-				byte[] buf = new byte[2048];
-				while (is.read(buf) > 0) {
-					continue;
-				}
-			}
-			if (checkHost) {
-				synchronized (checkCache) {
-					checkCache.put(url.getHost(), Integer.valueOf((int) (System.currentTimeMillis() / 1000)));
-				}
+			final URLConnection conn = url.openConnection();
+			conn.setConnectTimeout(connectionTimeout);
+			conn.setReadTimeout(readTimeout);
+			conn.setDoOutput(false);
+			conn.setUseCaches(true);
+			conn.connect();
+			is = conn.getInputStream();
+			byte[] buf = new byte[2048];
+			while (is.read(buf) > 0) {
+				continue;
 			}
 		} finally {
 			closeSilent(is);
 		}
 	}
 
+	private static final <K, V> V singleFlight(final SingleFlight<K, V> flight, final K key,
+			final Callable<V> task) throws IOException {
+		try {
+			return flight.execute(key, task);
+		} catch (IOException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Number of host checks executed and coalesced (shared result of an in-flight check)
+	 */
+	public long[] getHostCheckStats() {
+		return new long[] {
+				hostChecks.getExecuted(), hostChecks.getCoalesced()
+		};
+	}
+
+	/**
+	 * Number of connection checks executed and coalesced (shared result of an in-flight check)
+	 */
+	public long[] getConnectionCheckStats() {
+		return new long[] {
+				connectionChecks.getExecuted(), connectionChecks.getCoalesced()
+		};
+	}
+
 	private static final String getNewID() {
-		return UUID.randomUUID().toString();
+		return RequestID.next();
 	}
 
 	private static final void sendResponse(final HttpServletResponse response, final PrintWriter out,
@@ -356,7 +1247,7 @@ public class TinyURL extends HttpServlet {
 		out.println(msg);
 	}
 
-	private static final String getPathInfoKey(final String pathInfo) {
+	static final String getPathInfoKey(final String pathInfo) {
 		if (pathInfo == null)
 			return null;
 		if (pathInfo.isEmpty())
@@ -418,6 +1309,20 @@ public class TinyURL extends HttpServlet {
 		}
 	}
 
+	/**
+	 * Stop executor after running tasks (bounded by connection and read timeouts)
+	 */
+	private final void shutdown(final ExecutorService executor) {
+		if (executor == null)
+			return;
+		executor.shutdown();
+		try {
+			executor.awaitTermination(connectionTimeout + readTimeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 	private static final void closeSilent(final Closeable c) {
 		if (c != null) {
 			try {
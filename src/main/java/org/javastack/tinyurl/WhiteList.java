@@ -2,24 +2,35 @@ package org.javastack.tinyurl;
 
 import java.io.BufferedReader;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.log4j.Logger;
 
+/**
+ * Domain WhiteList, reloaded in background with conditional fetches (If-Modified-Since / ETag for http(s),
+ * modification time / size for files); checks never do I/O
+ */
 public class WhiteList {
 	private static final Logger log = Logger.getLogger(WhiteList.class);
 
 	private final String whiteListFile;
 
-	private volatile List<String> list = null;
-	private long lastReload = 0;
+	private volatile DomainMatcher matcher = null;
+	// Validators of loaded list and of list being loaded
+	private long lastModified = 0, nextLastModified = 0;
+	private long length = -1, nextLength = -1;
+	private String etag = null, nextEtag = null;
+	private volatile long lastReload = 0;
+	private volatile long lastReloadMillis = 0;
 
 	private int connectionTimeout = Constants.DEF_CONNECTION_TIMEOUT;
 	private int readTimeout = Constants.DEF_READ_TIMEOUT;
@@ -38,13 +49,18 @@ public class WhiteList {
 		return this;
 	}
 
-	public boolean load() throws IOException {
+	/**
+	 * Load list if modified since last load, new list is compiled and swapped atomically
+	 *
+	 * @return true if a new list was loaded
+	 */
+	public synchronized boolean load() throws IOException {
+		final long begin = System.currentTimeMillis();
 		InputStream is = null;
 		BufferedReader in = null;
 		try {
 			is = loadFile(whiteListFile);
 			if (is == null) {
-				this.lastReload = System.currentTimeMillis();
 				return false;
 			}
 			in = new BufferedReader(new InputStreamReader(is));
@@ -58,16 +74,51 @@ public class WhiteList {
 					continue;
 				list.add(line.toLowerCase());
 			}
-			log.info("Loaded " + list.size() + " Domains from " + whiteListFile);
-			this.list = list;
-			this.lastReload = System.currentTimeMillis();
+			final DomainMatcher matcher = DomainMatcher.compile(list);
+			log.info("Loaded " + list.size() + " Domains from " + whiteListFile + " (distinct="
+					+ matcher.size() + " memory=" + matcher.memoryUsage() + "bytes time="
+					+ (System.currentTimeMillis() - begin) + "ms)");
+			this.matcher = matcher;
+			this.lastModified = nextLastModified;
+			this.length = nextLength;
+			this.etag = nextEtag;
 			return true;
 		} finally {
 			closeSilent(in);
 			closeSilent(is);
+			this.lastReload = System.currentTimeMillis();
+			this.lastReloadMillis = (lastReload - begin);
 		}
 	}
 
+	/**
+	 * Reload (for background tasks), errors are logged and current list is kept
+	 *
+	 * @return true if a new list was loaded
+	 */
+	public boolean reload() {
+		try {
+			return load();
+		} catch (Exception e) {
+			log.warn("Fail to reload Whitelist: " + whiteListFile + " " + e);
+		}
+		return false;
+	}
+
+	/**
+	 * Time of last load attempt (epoch millis)
+	 */
+	public long getLastReload() {
+		return lastReload;
+	}
+
+	/**
+	 * Duration of last load attempt (millis)
+	 */
+	public long getLastReloadMillis() {
+		return lastReloadMillis;
+	}
+
 	private final InputStream loadFile(final String fileName) throws IOException {
 		URL url = null;
 		InputStream is = null;
@@ -80,51 +131,74 @@ public class WhiteList {
 			throw new FileNotFoundException("Not found: " + fileName);
 		}
 		try {
+			if ("file".equals(url.getProtocol())) {
+				final File file = toFile(url);
+				final long modified = file.lastModified();
+				final long size = file.length();
+				if ((matcher != null) && (modified == lastModified) && (size == length)) {
+					return null; // Not modified
+				}
+				is = new FileInputStream(file);
+				nextLastModified = modified;
+				nextLength = size;
+				nextEtag = null;
+				return is;
+			}
 			final URLConnection conn = url.openConnection();
 			conn.setConnectTimeout(connectionTimeout);
 			conn.setReadTimeout(readTimeout);
 			conn.setUseCaches(false);
-			final long lastModified = conn.getLastModified(); // Can be 0
+			if (conn instanceof HttpURLConnection) {
+				final HttpURLConnection http = (HttpURLConnection) conn;
+				if (matcher != null) {
+					if (lastModified > 0) {
+						http.setIfModifiedSince(lastModified);
+					}
+					if (etag != null) {
+						http.setRequestProperty("If-None-Match", etag);
+					}
+				}
+				if (http.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+					http.disconnect();
+					return null;
+				}
+				is = conn.getInputStream();
+				nextLastModified = conn.getLastModified(); // Can be 0
+				nextLength = -1;
+				nextEtag = conn.getHeaderField("ETag");
+				return is;
+			}
+			final long modified = conn.getLastModified(); // Can be 0
 			is = conn.getInputStream();
-			if (lastModified < lastReload) {
+			if ((matcher != null) && (modified > 0) && (modified == lastModified)) {
 				closeSilent(is);
 				return null;
 			}
+			nextLastModified = modified;
+			nextLength = -1;
+			nextEtag = null;
 		} catch (Exception e) {
+			closeSilent(is);
 			log.error("Load WhiteList error: " + e, e);
+			return null;
 		}
 		return is;
 	}
 
-	public boolean checkWhiteList(final String domain) {
-		if ((list != null) && list.isEmpty()) {
-			return false;
-		}
-		if ((lastReload + Constants.DEF_WHITELIST_RELOAD) < System.currentTimeMillis()) {
-			try {
-				load();
-			} catch (Exception e) {
-				log.warn("Fail to reload Whitelist: " + whiteListFile);
-			}
+	private static final File toFile(final URL url) {
+		try {
+			return new File(url.toURI());
+		} catch (Exception e) {
+			return new File(url.getPath());
 		}
-		if ((list == null) || list.isEmpty()) {
+	}
+
+	public boolean checkWhiteList(final String domain) {
+		final DomainMatcher matcher = this.matcher;
+		if ((matcher == null) || (matcher.size() == 0)) {
 			return false;
 		}
-		final String dd = domain.trim().toLowerCase();
-		final int len = list.size();
-		for (int i = 0; i < len; i++) {
-			final String d = list.get(i);
-			if (d.charAt(0) == '.') {
-				if (dd.endsWith(d) || dd.equals(d.substring(1))) {
-					return true;
-				}
-			} else {
-				if (dd.equals(d)) {
-					return true;
-				}
-			}
-		}
-		return false;
+		return matcher.matches(domain.trim().toLowerCase());
 	}
 
 	private static final void closeSilent(final Closeable c) {
@@ -25,12 +25,19 @@ public class DataSourceFactory {
 		// prop.setProperty("url", "jdbc:h2:tcp://localhost:9092/test;MODE=MYSQL;LOCK_TIMEOUT=50000");
 		// prop.setProperty("username", "sa");
 		// prop.setProperty("password", "");
-		prop.setProperty("maxActive", "1");
-		prop.setProperty("minIdle", "0");
-		prop.setProperty("maxIdle", "1");
+		// Pool sized for concurrent requests (redirects and shortens)
+		final int maxActive = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+		prop.setProperty("maxActive", String.valueOf(maxActive));
+		prop.setProperty("minIdle", "1");
+		prop.setProperty("maxIdle", String.valueOf(maxActive));
 		prop.setProperty("initialSize", "1");
+		// Validate at most once every 30 seconds per connection (not a round-trip per borrow)
 		prop.setProperty("testOnBorrow", "true");
+		prop.setProperty("testWhileIdle", "true");
+		prop.setProperty("validationInterval", "30000");
 		prop.setProperty("validationQuery", "SELECT 1 FROM DUAL");
+		// Reuse prepared statements of pooled connections
+		prop.setProperty("jdbcInterceptors", "StatementCache(prepared=true,callable=false,max=50)");
 		prop.setProperty("removeAbandoned", "true");
 		prop.setProperty("removeAbandonedTimeout", "300");
 		prop.setProperty("logAbandoned", "true");
@@ -1,32 +1,47 @@
 package org.javastack.tinyurl.jdbc;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.sql.DataSource;
 
 import org.apache.log4j.Logger;
 import org.javastack.stringproperties.StringProperties;
+import org.javastack.tinyurl.DumpReader;
 import org.javastack.tinyurl.Persistence;
 import org.javastack.tinyurl.TinyData;
 
 public class PersistentMySQL implements Persistence {
 	private static final Logger log = Logger.getLogger(PersistentMySQL.class);
-	private static final String table = "mapping";
-	private static final String TABLE_CREATE = "CREATE TABLE IF NOT EXISTS " + table + " (" + //
-			"token VARCHAR(22) CHARACTER SET latin1 COLLATE latin1_general_cs NOT NULL," + //
-			"url VARCHAR(65000) NOT NULL," + //
-			"timestamp INT(11) unsigned NOT NULL," + //
-			"PRIMARY KEY (token)" + //
-			") ENGINE=InnoDB;";
+	private static final String DEF_TABLE = "mapping";
+	private static final int BATCH_ROWS = 500; // rows per multi-row statement
+	private static final int TOKEN_LENGTH = 22; // token column
+	// Server-side prepared statements cached by driver
+	private static final String DEF_CONNECTION_PROPERTIES = "useServerPrepStmts=true;cachePrepStmts=true;"
+			+ "prepStmtCacheSize=64;prepStmtCacheSqlLimit=1024";
+	// Inserts absorb only duplicate keys (INSERT IGNORE also hides data errors), counted as 0 affected rows
+	private static final String ON_DUPLICATE_KEEP = " ON DUPLICATE KEY UPDATE token = token";
+	private static final String AFFECTED_ROWS = "useAffectedRows=true";
+	private String table = DEF_TABLE;
+	private String sqlPut, sqlPutIfAbsent, sqlGet, sqlRemove, sqlDump, sqlDumpSince, sqlDumpCursor;
 	private Properties config = null;
 	private DataSource dataSource = null;
+	private volatile boolean sequenceReady = false;
+	private boolean mysqlDriver = false; // MySQL / MariaDB driver (row streaming with fetch size MIN_VALUE)
 
 	public PersistentMySQL() {
 	}
@@ -35,11 +50,42 @@ public class PersistentMySQL implements Persistence {
 	public void configure(final StringProperties config) {
 		this.config = DataSourceFactory.defaultProperties();
 		this.config.setProperty("driverClassName", "com.mysql.jdbc.Driver");
+		this.config.setProperty("connectionProperties", DEF_CONNECTION_PROPERTIES);
 		for (final String key : config.stringPropertyNames()) {
 			final String value = config.getProperty(key);
+			if ("table".equals(key)) {
+				table = checkTableName(value);
+				continue;
+			}
+			if (value.isEmpty()) {
+				this.config.remove(key); // Unset default
+				continue;
+			}
 			this.config.setProperty(key, value);
 		}
-		log.info("Storage config=" + this.config);
+		// Driver default counts found rows, inserted rows are needed (ON_DUPLICATE_KEEP)
+		final String url = this.config.getProperty("url", "");
+		mysqlDriver = (url.startsWith("jdbc:mysql:") || url.startsWith("jdbc:mariadb:"));
+		if (mysqlDriver) {
+			final String props = this.config.getProperty("connectionProperties", "");
+			if (!props.contains("useAffectedRows")) {
+				this.config.setProperty("connectionProperties",
+						(props.isEmpty() ? AFFECTED_ROWS : props + ";" + AFFECTED_ROWS));
+			}
+		}
+		// timestamp: creation (kept by load), stored: time stored (incremental dumps)
+		sqlPut = "REPLACE INTO " + table + " (token, url, timestamp, stored) VALUES(?, ?, ?, ?)";
+		sqlPutIfAbsent = "INSERT INTO " + table + " (token, url, timestamp, stored) VALUES(?, ?, ?, ?)"
+				+ ON_DUPLICATE_KEEP;
+		sqlGet = "SELECT url FROM " + table + " WHERE token = ?";
+		sqlRemove = "DELETE FROM " + table + " WHERE token = ?";
+		sqlDump = "SELECT token, url, timestamp FROM " + table;
+		// Keyset pagination on (stored, token), secondary index includes primary key
+		sqlDumpSince = "SELECT token, url, timestamp, stored FROM " + table
+				+ " WHERE stored >= ? ORDER BY stored, token";
+		sqlDumpCursor = "SELECT token, url, timestamp, stored FROM " + table
+				+ " WHERE stored >= ? AND (stored > ? OR (stored = ? AND token > ?)) ORDER BY stored, token";
+		log.info("Storage table=" + table + " config=" + this.config);
 	}
 
 	@Override
@@ -54,8 +100,17 @@ public class PersistentMySQL implements Persistence {
 		PreparedStatement pstmtCreate = null;
 		try {
 			conn = dataSource.getConnection();
-			pstmtCreate = conn.prepareStatement(TABLE_CREATE);
+			pstmtCreate = conn.prepareStatement("CREATE TABLE IF NOT EXISTS " + table + " (" + //
+					"token VARCHAR(" + TOKEN_LENGTH + ") CHARACTER SET latin1 COLLATE latin1_general_cs NOT NULL," + //
+					"url VARCHAR(65000) NOT NULL," + //
+					"timestamp INT(11) unsigned NOT NULL," + //
+					"stored INT(11) unsigned NOT NULL," + //
+					"PRIMARY KEY (token)," + //
+					"KEY (stored)" + // Unnamed: index names are per schema in some engines
+					") ENGINE=InnoDB;");
 			pstmtCreate.executeUpdate();
+			createStoredColumn(conn);
+			createStoredIndex(conn);
 		} catch (Exception e) {
 			throw new IOException(e);
 		} finally {
@@ -64,6 +119,89 @@ public class PersistentMySQL implements Persistence {
 		}
 	}
 
+	/**
+	 * Add time stored to tables created by previous versions (existing rows: creation), required by writes
+	 */
+	private void createStoredColumn(final Connection conn) throws SQLException {
+		final DatabaseMetaData meta = conn.getMetaData();
+		ResultSet rset = null;
+		try {
+			rset = meta.getColumns(conn.getCatalog(), null, identifier(meta, table), identifier(meta, "stored"));
+			if (rset.next())
+				return;
+		} catch (SQLException e) {
+			log.warn("Unable to check column stored on table=" + table + ": " + e);
+			return;
+		} finally {
+			closeSilent(rset);
+		}
+		log.info("Adding column stored to table=" + table);
+		PreparedStatement pstmtAlter = null;
+		try {
+			pstmtAlter = conn.prepareStatement("ALTER TABLE " + table
+					+ " ADD COLUMN stored INT(11) unsigned NOT NULL DEFAULT 0");
+			pstmtAlter.executeUpdate();
+			closeSilent(pstmtAlter);
+			pstmtAlter = conn.prepareStatement("UPDATE " + table + " SET stored = timestamp");
+			pstmtAlter.executeUpdate();
+		} finally {
+			closeSilent(pstmtAlter);
+		}
+	}
+
+	/**
+	 * Add index for incremental dumps (best effort: without index incremental dumps are full scans)
+	 */
+	private void createStoredIndex(final Connection conn) {
+		try {
+			if (hasStoredIndex(conn))
+				return;
+		} catch (SQLException e) {
+			log.warn("Unable to check index of stored on table=" + table + ": " + e);
+			return;
+		}
+		log.info("Creating index of stored on table=" + table);
+		PreparedStatement pstmtAlter = null;
+		try {
+			pstmtAlter = conn.prepareStatement("ALTER TABLE " + table + " ADD INDEX (stored)");
+			pstmtAlter.executeUpdate();
+		} catch (SQLException e) {
+			log.warn("Unable to create index of stored on table=" + table + ": " + e);
+		} finally {
+			closeSilent(pstmtAlter);
+		}
+	}
+
+	/**
+	 * Any index with stored as first column (portable JDBC metadata, not information_schema)
+	 */
+	private boolean hasStoredIndex(final Connection conn) throws SQLException {
+		final DatabaseMetaData meta = conn.getMetaData();
+		ResultSet rset = null;
+		try {
+			rset = meta.getIndexInfo(conn.getCatalog(), null, identifier(meta, table), false, true);
+			while (rset.next()) {
+				if ((rset.getShort("ORDINAL_POSITION") == 1)
+						&& "stored".equalsIgnoreCase(rset.getString("COLUMN_NAME")))
+					return true;
+			}
+			return false;
+		} finally {
+			closeSilent(rset);
+		}
+	}
+
+	/**
+	 * Unquoted identifier as stored in metadata
+	 */
+	private static final String identifier(final DatabaseMetaData meta, final String name) throws SQLException {
+		if (meta.storesUpperCaseIdentifiers())
+			return name.toUpperCase(Locale.ENGLISH);
+		if (meta.storesLowerCaseIdentifiers())
+			return name.toLowerCase(Locale.ENGLISH);
+		return name;
+	}
+
 	@Override
 	public void close() {
 		DataSourceFactory.destroyDataSource(dataSource);
@@ -75,11 +213,12 @@ public class PersistentMySQL implements Persistence {
 		PreparedStatement pstmtPut = null;
 		try {
 			conn = dataSource.getConnection();
-			pstmtPut = conn.prepareStatement("REPLACE INTO " + table
-					+ " (token, url, timestamp) VALUES(?, ?, ?)");
+			pstmtPut = conn.prepareStatement(sqlPut);
+			final int timestamp = (int) (System.currentTimeMillis() / 1000);
 			pstmtPut.setString(1, key);
 			pstmtPut.setString(2, url);
-			pstmtPut.setInt(3, (int) (System.currentTimeMillis() / 1000));
+			pstmtPut.setInt(3, timestamp);
+			pstmtPut.setInt(4, timestamp);
 			pstmtPut.executeUpdate();
 		} catch (SQLException e) {
 			throw new IOException(e);
@@ -89,14 +228,225 @@ public class PersistentMySQL implements Persistence {
 		}
 	}
 
+	@Override
+	public TinyData putIfAbsent(final String key, final String url) throws IOException {
+		Connection conn = null;
+		PreparedStatement pstmtPut = null;
+		try {
+			conn = dataSource.getConnection();
+			pstmtPut = conn.prepareStatement(sqlPutIfAbsent);
+			final int timestamp = (int) (System.currentTimeMillis() / 1000);
+			pstmtPut.setString(1, key);
+			pstmtPut.setString(2, url);
+			pstmtPut.setInt(3, timestamp);
+			pstmtPut.setInt(4, timestamp);
+			// Retry if existing row is removed before read
+			for (int i = 0; i < 3; i++) {
+				if (pstmtPut.executeUpdate() > 0)
+					return null;
+				final TinyData meta = get(conn, key);
+				if (meta != null)
+					return meta;
+			}
+			throw new IOException("Unable to put key=" + key);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeSilent(pstmtPut);
+			closeSilent(conn);
+		}
+	}
+
+	@Override
+	public Map<String, TinyData> putAll(final Map<String, String> mappings) throws IOException {
+		final HashMap<String, TinyData> collisions = new HashMap<String, TinyData>();
+		final ArrayList<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(
+				mappings.entrySet());
+		Connection conn = null;
+		try {
+			conn = dataSource.getConnection();
+			final int timestamp = (int) (System.currentTimeMillis() / 1000);
+			for (int from = 0; from < entries.size(); from += BATCH_ROWS) {
+				final List<Map.Entry<String, String>> chunk = entries.subList(from,
+						Math.min(entries.size(), from + BATCH_ROWS));
+				PreparedStatement pstmtPut = null;
+				int inserted = 0;
+				try {
+					pstmtPut = conn.prepareStatement(sqlInsertRows(chunk.size()));
+					int p = 1;
+					for (final Map.Entry<String, String> e : chunk) {
+						pstmtPut.setString(p++, e.getKey());
+						pstmtPut.setString(p++, e.getValue());
+						pstmtPut.setInt(p++, timestamp);
+						pstmtPut.setInt(p++, timestamp);
+					}
+					inserted = pstmtPut.executeUpdate();
+				} finally {
+					closeSilent(pstmtPut);
+				}
+				if (inserted >= chunk.size())
+					continue;
+				// Some keys exist: collisions if stored url is other
+				final ArrayList<String> keys = new ArrayList<String>(chunk.size());
+				for (final Map.Entry<String, String> e : chunk) {
+					keys.add(e.getKey());
+				}
+				final Map<String, TinyData> existing = getAll(conn, keys);
+				for (final Map.Entry<String, String> e : chunk) {
+					final TinyData meta = existing.get(e.getKey());
+					if ((meta != null) && !e.getValue().equals(meta.getURL())) {
+						collisions.put(e.getKey(), meta);
+					}
+				}
+			}
+			return collisions;
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeSilent(conn);
+		}
+	}
+
+	@Override
+	public long load(final InputStream in) throws IOException {
+		final long begin = System.currentTimeMillis();
+		final DumpReader reader = new DumpReader(in, TOKEN_LENGTH);
+		final String[] keys = new String[BATCH_ROWS];
+		final String[] urls = new String[BATCH_ROWS];
+		final int[] timestamps = new int[BATCH_ROWS];
+		Connection conn = null;
+		PreparedStatement pstmtFull = null;
+		long count = 0, inserted = 0;
+		try {
+			conn = dataSource.getConnection();
+			boolean more = true;
+			while (more) {
+				int len = 0;
+				while ((len < BATCH_ROWS) && (more = reader.next())) {
+					keys[len] = reader.getToken();
+					urls[len] = reader.getURL();
+					timestamps[len] = reader.getTimestamp();
+					len++;
+				}
+				if (len == 0)
+					break;
+				count += len;
+				final int stored = (int) (System.currentTimeMillis() / 1000);
+				// Statement of full chunk is reused
+				PreparedStatement pstmtPut = null;
+				try {
+					if (len == BATCH_ROWS) {
+						if (pstmtFull == null) {
+							pstmtFull = conn.prepareStatement(sqlInsertRows(BATCH_ROWS));
+						}
+						pstmtPut = pstmtFull;
+					} else {
+						pstmtPut = conn.prepareStatement(sqlInsertRows(len));
+					}
+					int p = 1;
+					for (int i = 0; i < len; i++) {
+						pstmtPut.setString(p++, keys[i]);
+						pstmtPut.setString(p++, urls[i]);
+						pstmtPut.setInt(p++, timestamps[i]);
+						pstmtPut.setInt(p++, stored);
+					}
+					inserted += pstmtPut.executeUpdate();
+				} finally {
+					if (pstmtPut != pstmtFull) {
+						closeSilent(pstmtPut);
+					}
+				}
+			}
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeSilent(pstmtFull);
+			closeSilent(conn);
+			closeSilent(reader);
+		}
+		log.info("Loaded rows=" + count + " stored=" + inserted + " skipped=" + (count - inserted) + " invalid="
+				+ reader.getInvalid() + " (" + (System.currentTimeMillis() - begin) + "ms)");
+		return inserted;
+	}
+
+	private final String sqlInsertRows(final int rows) {
+		final StringBuilder sql = new StringBuilder(64 + (rows * 16));
+		sql.append("INSERT INTO ").append(table).append(" (token, url, timestamp, stored) VALUES ");
+		for (int i = 0; i < rows; i++) {
+			sql.append((i == 0) ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+		}
+		sql.append(ON_DUPLICATE_KEEP);
+		return sql.toString();
+	}
+
+	@Override
+	public Map<String, TinyData> getAll(final Collection<String> keys) throws IOException {
+		Connection conn = null;
+		try {
+			conn = dataSource.getConnection();
+			return getAll(conn, new ArrayList<String>(keys));
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeSilent(conn);
+		}
+	}
+
+	private final Map<String, TinyData> getAll(final Connection conn, final List<String> keys)
+			throws SQLException {
+		final HashMap<String, TinyData> found = new HashMap<String, TinyData>();
+		for (int from = 0; from < keys.size(); from += BATCH_ROWS) {
+			final List<String> chunk = keys.subList(from, Math.min(keys.size(), from + BATCH_ROWS));
+			final StringBuilder sql = new StringBuilder(64 + (chunk.size() * 3));
+			sql.append("SELECT token, url FROM ").append(table).append(" WHERE token IN (");
+			for (int i = 0; i < chunk.size(); i++) {
+				sql.append((i == 0) ? "?" : ", ?");
+			}
+			sql.append(')');
+			PreparedStatement pstmtGet = null;
+			ResultSet rset = null;
+			try {
+				pstmtGet = conn.prepareStatement(sql.toString());
+				int p = 1;
+				for (final String key : chunk) {
+					pstmtGet.setString(p++, key);
+				}
+				rset = pstmtGet.executeQuery();
+				while (rset.next()) {
+					final String url = rset.getString("url");
+					found.put(rset.getString("token"), new TinyData() {
+						@Override
+						public String getURL() {
+							return url;
+						}
+					});
+				}
+			} finally {
+				closeSilent(rset);
+				closeSilent(pstmtGet);
+			}
+		}
+		return found;
+	}
+
 	@Override
 	public TinyData get(final String key) throws IOException {
 		Connection conn = null;
+		try {
+			conn = dataSource.getConnection();
+			return get(conn, key);
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeSilent(conn);
+		}
+	}
+
+	private final TinyData get(final Connection conn, final String key) throws SQLException {
 		PreparedStatement pstmtGet = null;
 		ResultSet rset = null;
 		try {
-			conn = dataSource.getConnection();
-			pstmtGet = conn.prepareStatement("SELECT url FROM " + table + " WHERE token = ?");
+			pstmtGet = conn.prepareStatement(sqlGet);
 			pstmtGet.setString(1, key);
 			rset = pstmtGet.executeQuery();
 			if (rset.next()) {
@@ -108,12 +458,9 @@ public class PersistentMySQL implements Persistence {
 					}
 				};
 			}
-		} catch (SQLException e) {
-			throw new IOException(e);
 		} finally {
 			closeSilent(rset);
 			closeSilent(pstmtGet);
-			closeSilent(conn);
 		}
 		return null;
 	}
@@ -124,7 +471,7 @@ public class PersistentMySQL implements Persistence {
 		PreparedStatement pstmtRemove = null;
 		try {
 			conn = dataSource.getConnection();
-			pstmtRemove = conn.prepareStatement("DELETE FROM " + table + " WHERE token = ?");
+			pstmtRemove = conn.prepareStatement(sqlRemove);
 			pstmtRemove.setString(1, key);
 			pstmtRemove.executeUpdate();
 		} catch (SQLException e) {
@@ -135,6 +482,69 @@ public class PersistentMySQL implements Persistence {
 		}
 	}
 
+	@Override
+	public long leaseSequence(final int size) throws IOException {
+		final String sequence = table + "_sequence";
+		Connection conn = null;
+		PreparedStatement pstmtLease = null;
+		ResultSet rset = null;
+		try {
+			conn = dataSource.getConnection();
+			if (!sequenceReady) {
+				createSequence(conn, sequence);
+				sequenceReady = true;
+			}
+			pstmtLease = conn.prepareStatement("UPDATE " + sequence
+					+ " SET next = LAST_INSERT_ID(next + ?) WHERE id = 1");
+			pstmtLease.setInt(1, size);
+			pstmtLease.executeUpdate();
+			closeSilent(pstmtLease);
+			// LAST_INSERT_ID is per connection
+			pstmtLease = conn.prepareStatement("SELECT LAST_INSERT_ID()");
+			rset = pstmtLease.executeQuery();
+			if (!rset.next()) {
+				throw new IOException("Unable to lease sequence");
+			}
+			return rset.getLong(1) - size;
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeSilent(rset);
+			closeSilent(pstmtLease);
+			closeSilent(conn);
+		}
+	}
+
+	private static final void createSequence(final Connection conn, final String sequence) throws SQLException {
+		PreparedStatement pstmtCreate = null;
+		try {
+			pstmtCreate = conn.prepareStatement("CREATE TABLE IF NOT EXISTS " + sequence + " (" + //
+					"id TINYINT unsigned NOT NULL," + //
+					"next BIGINT unsigned NOT NULL," + //
+					"PRIMARY KEY (id)" + //
+					") ENGINE=InnoDB;");
+			pstmtCreate.executeUpdate();
+			closeSilent(pstmtCreate);
+			pstmtCreate = conn.prepareStatement("INSERT IGNORE INTO " + sequence + " (id, next) VALUES (1, 0)");
+			pstmtCreate.executeUpdate();
+		} finally {
+			closeSilent(pstmtCreate);
+		}
+	}
+
+	private static final String checkTableName(final String name) {
+		if ((name == null) || name.isEmpty())
+			throw new IllegalArgumentException("Invalid table name: " + name);
+		for (int i = 0; i < name.length(); i++) {
+			final char c = name.charAt(i);
+			if (((c >= 'A') && (c <= 'Z')) || ((c >= 'a') && (c <= 'z')) || ((c >= '0') && (c <= '9'))
+					|| (c == '_'))
+				continue;
+			throw new IllegalArgumentException("Invalid table name: " + name);
+		}
+		return name;
+	}
+
 	@Override
 	public void dump(final OutputStream out) throws IOException {
 		Connection conn = null;
@@ -142,7 +552,7 @@ public class PersistentMySQL implements Persistence {
 		ResultSet rset = null;
 		try {
 			conn = dataSource.getConnection();
-			pstmtDump = conn.prepareStatement("SELECT token, url, timestamp FROM " + table);
+			pstmtDump = conn.prepareStatement(sqlDump);
 			rset = pstmtDump.executeQuery();
 			final Charset iso = Charset.forName("ISO-8859-1");
 			final byte[] CRLF = "\r\n".getBytes(iso);
@@ -169,6 +579,66 @@ public class PersistentMySQL implements Persistence {
 		}
 	}
 
+	/**
+	 * Incremental dump in (stored, token) order: cursor is <code>stored:token</code> of each row
+	 */
+	@Override
+	public void dump(final OutputStream out, final long since, final String cursor) throws IOException {
+		long cursorStored = -1;
+		String cursorToken = null;
+		if (cursor != null) {
+			final int sep = cursor.indexOf(':');
+			if (sep <= 0)
+				throw new IllegalArgumentException("Invalid cursor: " + cursor);
+			cursorStored = Long.parseLong(cursor.substring(0, sep));
+			cursorToken = cursor.substring(sep + 1);
+		}
+		Connection conn = null;
+		PreparedStatement pstmtDump = null;
+		ResultSet rset = null;
+		try {
+			conn = dataSource.getConnection();
+			pstmtDump = conn.prepareStatement((cursor == null) ? sqlDumpSince : sqlDumpCursor,
+					ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			// Stream rows (not whole result in memory)
+			pstmtDump.setFetchSize(mysqlDriver ? Integer.MIN_VALUE : BATCH_ROWS);
+			pstmtDump.setLong(1, since);
+			if (cursor != null) {
+				pstmtDump.setLong(2, cursorStored);
+				pstmtDump.setLong(3, cursorStored);
+				pstmtDump.setString(4, cursorToken);
+			}
+			rset = pstmtDump.executeQuery();
+			final Charset iso = Charset.forName("ISO-8859-1");
+			final byte[] CRLF = "\r\n".getBytes(iso);
+			out.write("token,url,created-unix-epoch-utc,cursor".getBytes(iso));
+			out.write(CRLF);
+			while (rset.next()) {
+				final String token = rset.getString("token");
+				final String url = rset.getString("url");
+				final long timestamp = rset.getLong("timestamp");
+				final long stored = rset.getLong("stored");
+				out.write(token.getBytes(iso));
+				out.write(',');
+				out.write(url.getBytes(iso));
+				out.write(',');
+				out.write(Long.toString(timestamp).getBytes(iso));
+				out.write(',');
+				out.write(Long.toString(stored).getBytes(iso));
+				out.write(':');
+				out.write(token.getBytes(iso));
+				out.write(CRLF);
+			}
+			out.flush();
+		} catch (SQLException e) {
+			throw new IOException(e);
+		} finally {
+			closeSilent(rset);
+			closeSilent(pstmtDump);
+			closeSilent(conn);
+		}
+	}
+
 	private static final void closeSilent(final AutoCloseable c) {
 		if (c != null) {
 			try {
@@ -0,0 +1,113 @@
+package org.javastack.tinyurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DomainMatcherTest {
+	private static final List<String> DOMAINS = Arrays.asList( //
+			"example.com", ".example.org", "a.b.example.net", ".b.example.net", //
+			"dup.example.io", ".dup.example.io", "m\u00FCnchen.de", ".b\u00FCcher.example", "localhost");
+
+	@Test
+	public void exact() {
+		final DomainMatcher m = DomainMatcher.compile(DOMAINS);
+		assertTrue(m.matches("example.com"));
+		assertTrue(m.matches("localhost"));
+		assertTrue(m.matches("a.b.example.net"));
+		assertFalse(m.matches("www.example.com"));
+		assertFalse(m.matches("example.co"));
+		assertFalse(m.matches("xexample.com"));
+		assertFalse(m.matches(""));
+	}
+
+	@Test
+	public void wildcard() {
+		final DomainMatcher m = DomainMatcher.compile(DOMAINS);
+		assertTrue(m.matches("example.org"));
+		assertTrue(m.matches("www.example.org"));
+		assertTrue(m.matches("a.b.example.org"));
+		assertTrue(m.matches("c.b.example.net"));
+		assertFalse(m.matches("badexample.org"));
+		assertFalse(m.matches("example.org.evil.com"));
+		assertFalse(m.matches(".example.org.x"));
+	}
+
+	@Test
+	public void duplicates() {
+		final DomainMatcher m = DomainMatcher.compile(DOMAINS);
+		assertEquals(DOMAINS.size() - 1, m.size());
+		assertTrue(m.matches("dup.example.io"));
+		assertTrue(m.matches("www.dup.example.io"));
+	}
+
+	@Test
+	public void idn() {
+		final DomainMatcher m = DomainMatcher.compile(DOMAINS);
+		assertTrue(m.matches("m\u00FCnchen.de"));
+		assertFalse(m.matches("www.m\u00FCnchen.de"));
+		assertFalse(m.matches("munchen.de"));
+		assertTrue(m.matches("b\u00FCcher.example"));
+		assertTrue(m.matches("www.b\u00FCcher.example"));
+		assertFalse(m.matches("bucher.example"));
+	}
+
+	@Test
+	public void sameAsLinearScan() {
+		final Random r = new Random(42);
+		final String[] labels = {
+				"a", "b", "www", "example", "com", "org", "\u00FC", "xn--mnchen-3ya", "co", "uk"
+		};
+		final List<String> domains = new ArrayList<String>();
+		for (int i = 0; i < 500; i++) {
+			final String d = randomDomain(r, labels);
+			domains.add(r.nextBoolean() ? "." + d : d);
+		}
+		final DomainMatcher m = DomainMatcher.compile(domains);
+		for (int i = 0; i < 20000; i++) {
+			final String host = randomDomain(r, labels);
+			assertEquals(host, linear(domains, host), m.matches(host));
+		}
+		for (final String d : domains) {
+			final String host = ((d.charAt(0) == '.') ? d.substring(1) : d);
+			assertTrue(host, m.matches(host));
+		}
+	}
+
+	private static String randomDomain(final Random r, final String[] labels) {
+		final StringBuilder sb = new StringBuilder();
+		final int n = 1 + r.nextInt(4);
+		for (int i = 0; i < n; i++) {
+			if (i > 0) {
+				sb.append('.');
+			}
+			sb.append(labels[r.nextInt(labels.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Previous WhiteList check (linear scan)
+	 */
+	private static boolean linear(final List<String> list, final String dd) {
+		for (final String d : list) {
+			if (d.charAt(0) == '.') {
+				if (dd.endsWith(d) || dd.equals(d.substring(1))) {
+					return true;
+				}
+			} else {
+				if (dd.equals(d)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,101 @@
+package org.javastack.tinyurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class DumpReaderTest {
+	@Test
+	public void commasInURL() throws IOException {
+		final DumpReader r = reader("token,url,created-unix-epoch-utc\r\n" //
+				+ "abcdef,https://www.example.com/a,b,c?x=1,2,1600000000\r\n" //
+				+ "ghijkl,https://www.example.com/,,1600000001\r\n", 6);
+		assertTrue(r.next());
+		assertEquals("abcdef", r.getToken());
+		assertEquals("https://www.example.com/a,b,c?x=1,2", r.getURL());
+		assertEquals(1600000000, r.getTimestamp());
+		assertTrue(r.next());
+		assertEquals("ghijkl", r.getToken());
+		assertEquals("https://www.example.com/,", r.getURL());
+		assertEquals(1600000001, r.getTimestamp());
+		assertFalse(r.next());
+		assertEquals(0, r.getInvalid());
+		assertEquals(3, r.getLines());
+	}
+
+	@Test
+	public void quotesInURL() throws IOException {
+		// Dumps are not quoted, quotes are part of URL
+		final DumpReader r = reader("token,url,created-unix-epoch-utc\n" //
+				+ "abcdef,https://www.example.com/?q=\"a,b\"&r='c',1600000000\n" //
+				+ "ghijkl,\"https://www.example.com/\",1600000001\n", 6);
+		assertTrue(r.next());
+		assertEquals("https://www.example.com/?q=\"a,b\"&r='c'", r.getURL());
+		assertTrue(r.next());
+		assertEquals("\"https://www.example.com/\"", r.getURL());
+		assertFalse(r.next());
+	}
+
+	@Test
+	public void headerFields() throws IOException {
+		// Without creation (time of load), and incremental dump with cursor
+		final long now = System.currentTimeMillis() / 1000;
+		DumpReader r = reader("token,url\nabcdef,https://www.example.com/a,b\n", 6);
+		assertTrue(r.next());
+		assertEquals("https://www.example.com/a,b", r.getURL());
+		assertTrue(r.getTimestamp() >= now);
+		r = reader("token,url,created-unix-epoch-utc,cursor\nabcdef,https://www.example.com/a,b,1600000000,42\n", 6);
+		assertTrue(r.next());
+		assertEquals("https://www.example.com/a,b", r.getURL());
+		assertEquals(1600000000, r.getTimestamp());
+	}
+
+	@Test
+	public void invalidRows() throws IOException {
+		final DumpReader r = reader("token,url,created-unix-epoch-utc\n" //
+				+ "\n" //
+				+ "no-comma\n" //
+				+ ",https://www.example.com/,1600000000\n" //
+				+ "abcdef,https://www.example.com/,not-a-number\n" //
+				+ "abcdef,1600000000\n" //
+				+ "ghijkl,https://www.example.com/,1600000000\n", 6);
+		assertTrue(r.next());
+		assertEquals("ghijkl", r.getToken());
+		assertFalse(r.next());
+		assertEquals(4, r.getInvalid());
+	}
+
+	@Test
+	public void tokenLength() throws IOException {
+		final DumpReader r = reader("token,url,created-unix-epoch-utc\n" //
+				+ "a,https://www.example.com/1,1600000000\n" //
+				+ "0123456789012345678901,https://www.example.com/2,1600000000\n" //
+				+ "0123456789012345678901X,https://www.example.com/3,1600000000\n", 22);
+		assertTrue(r.next());
+		assertEquals("a", r.getToken());
+		assertTrue(r.next());
+		assertEquals("0123456789012345678901", r.getToken());
+		try {
+			r.next();
+			fail("token longer than limit");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("0123456789012345678901X"));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void invalidHeader() throws IOException {
+		reader("token\nabcdef\n", 6).next();
+	}
+
+	private static DumpReader reader(final String csv, final int maxToken) {
+		return new DumpReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.ISO_8859_1)), maxToken);
+	}
+}
@@ -0,0 +1,79 @@
+package org.javastack.tinyurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HasherTest {
+	@Test
+	public void md5SameAsPrevious() throws Exception {
+		final Hasher hasher = new Hasher();
+		final Random r = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			final String url = randomURL(r);
+			assertEquals(url, previous(url), hasher.hashURL(url));
+		}
+		assertEquals(previous("https://github.com/ggrandes/tinyurl/"),
+				hasher.hashURL("https://github.com/ggrandes/tinyurl/"));
+	}
+
+	@Test
+	public void collisionSameAsPrefix() throws Exception {
+		final Hasher hasher = new Hasher(Hasher.MD5);
+		final String url = "https://www.example.com/path?q=1";
+		for (int collision = 1; collision <= Constants.MAX_COLLISION; collision++) {
+			final String key = hasher.hashURL(url, collision);
+			assertEquals(previous(collision + ":" + url), key);
+			assertNotEquals(hasher.hashURL(url), key);
+		}
+	}
+
+	@Test
+	public void isoLatin1() throws Exception {
+		final Hasher hasher = new Hasher();
+		final String url = "https://www.example.com/\u00E1\u00E9\u00ED";
+		assertEquals(previous(url), hasher.hashURL(url));
+	}
+
+	@Test
+	public void murmur3() throws Exception {
+		final Hasher hasher = new Hasher(Hasher.MURMUR3);
+		final String url = "https://www.example.com/";
+		final String key = hasher.hashURL(url);
+		assertEquals(Constants.KEY_SPACE, key.length());
+		assertEquals(key, hasher.hashURL(url));
+		assertNotEquals(key, hasher.hashURL(url, 1));
+		for (final char c : key.toCharArray()) {
+			assertTrue(new String(Hasher.ALPHABET).indexOf(c) >= 0);
+		}
+	}
+
+	@Test(expected = java.security.NoSuchAlgorithmException.class)
+	public void invalidAlgorithm() throws Exception {
+		new Hasher("SHA3");
+	}
+
+	private static String randomURL(final Random r) {
+		final StringBuilder sb = new StringBuilder("https://www.example.com/");
+		final int len = r.nextInt(200);
+		for (int i = 0; i < len; i++) {
+			sb.append((char) (0x20 + r.nextInt(0x5F)));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Previous key: URL-safe Base64 of MD5 digest (ISO-8859-1), first KEY_SPACE chars
+	 */
+	private static String previous(final String url) throws Exception {
+		final byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes(StandardCharsets.ISO_8859_1));
+		return Base64.getUrlEncoder().encodeToString(digest).substring(0, Constants.KEY_SPACE);
+	}
+}
@@ -0,0 +1,135 @@
+package org.javastack.tinyurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.javastack.stringproperties.StringProperties;
+import org.junit.Test;
+
+public class KeySequenceTest {
+	@Test
+	public void permutationOneToOne() {
+		final KeySequence seq = new KeySequence(new SequenceStore(0), 1000, true, 12345L);
+		final HashMap<Long, Long> images = new HashMap<Long, Long>();
+		// Counter start (dense), random sample of whole space and last value
+		for (long v = 0; v < 100000; v++) {
+			checkPermute(seq, images, v);
+		}
+		final Random r = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			checkPermute(seq, images, r.nextLong() & KeySequence.MAX_VALUE);
+		}
+		checkPermute(seq, images, KeySequence.MAX_VALUE);
+	}
+
+	private static void checkPermute(final KeySequence seq, final HashMap<Long, Long> images, final long v) {
+		final long p = seq.permute(v);
+		assertTrue("out of range: " + v + " -> " + p, (p >= 0) && (p <= KeySequence.MAX_VALUE));
+		final Long old = images.put(p, v);
+		if (old != null) {
+			assertEquals("same image of " + old + " and " + v, old.longValue(), v);
+		}
+	}
+
+	@Test
+	public void secretChangesKeys() throws IOException {
+		final KeySequence a = new KeySequence(new SequenceStore(0), 10, true, 1L);
+		final KeySequence b = new KeySequence(new SequenceStore(0), 10, true, 1L);
+		final KeySequence c = new KeySequence(new SequenceStore(0), 10, true, 2L);
+		final String ka = a.nextKey();
+		assertEquals(ka, b.nextKey());
+		assertNotEquals(ka, c.nextKey());
+	}
+
+	@Test
+	public void sequentialKeys() throws IOException {
+		final KeySequence seq = new KeySequence(new SequenceStore(0), 3, false, 0L);
+		assertEquals("AAAAAA", seq.nextKey());
+		assertEquals("AAAAAB", seq.nextKey());
+		assertEquals("AAAAAC", seq.nextKey());
+		assertEquals("AAAAAD", seq.nextKey()); // next block
+	}
+
+	@Test
+	public void uniqueKeysAcrossBlocks() throws IOException {
+		final SequenceStore store = new SequenceStore(0);
+		final KeySequence a = new KeySequence(store, 7, true, 99L);
+		final KeySequence b = new KeySequence(store, 5, true, 99L);
+		final HashSet<String> seen = new HashSet<String>();
+		for (int i = 0; i < 10000; i++) {
+			final String k = (((i & 1) == 0) ? a : b).nextKey();
+			assertEquals(Constants.KEY_SPACE, k.length());
+			assertTrue("duplicate key " + k, seen.add(k));
+		}
+	}
+
+	@Test
+	public void exhausted() throws IOException {
+		final KeySequence seq = new KeySequence(new SequenceStore(KeySequence.MAX_VALUE), 2, false, 0L);
+		assertEquals("______", seq.nextKey());
+		try {
+			seq.nextKey();
+			fail("sequence not exhausted");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Storage with only a sequence
+	 */
+	private static class SequenceStore implements Persistence {
+		private long next;
+
+		SequenceStore(final long first) {
+			this.next = first;
+		}
+
+		@Override
+		public synchronized long leaseSequence(final int size) {
+			final long first = next;
+			next += size;
+			return first;
+		}
+
+		@Override
+		public void configure(final StringProperties properties) {
+		}
+
+		@Override
+		public void open() {
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public void put(final String key, final String url) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public TinyData get(final String key) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void remove(final String key) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void dump(final OutputStream out) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.javastack.tinyurl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TinyLFUCacheTest {
+	private static final TinyLFUCache.Weigher<String, String> LENGTH = new TinyLFUCache.Weigher<String, String>() {
+		@Override
+		public int weigh(final String key, final String value) {
+			return value.length();
+		}
+	};
+
+	@Test
+	public void ttl() throws InterruptedException {
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(100);
+		cache.put("short", "a", 200);
+		cache.put("long", "b", 60000);
+		cache.put("never", "c");
+		assertEquals("a", cache.get("short"));
+		Thread.sleep(400);
+		assertNull(cache.get("short"));
+		assertEquals("b", cache.get("long"));
+		assertEquals("c", cache.get("never"));
+		assertEquals(1, cache.getExpirations());
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void expireRemovesInBackground() throws InterruptedException {
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(1000);
+		for (int i = 0; i < 100; i++) {
+			cache.put("k" + i, "v" + i, ((i % 2) == 0) ? 200 : 0);
+		}
+		Thread.sleep(400);
+		assertEquals(50, cache.expire());
+		assertEquals(50, cache.size());
+		assertEquals(0, cache.expire());
+	}
+
+	@Test
+	public void putRenewsTTL() throws InterruptedException {
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(100);
+		cache.put("k", "v1", 200);
+		cache.put("k", "v2", 0);
+		Thread.sleep(400);
+		assertEquals("v2", cache.get("k"));
+	}
+
+	@Test
+	public void entriesBound() {
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(1000);
+		for (int i = 0; i < 100000; i++) {
+			cache.put("k" + i, "v");
+			assertTrue(cache.size() <= 1000);
+		}
+		assertTrue(cache.getEvictions() >= (100000 - 1000));
+	}
+
+	@Test
+	public void weightBound() {
+		final long maxWeight = 10000;
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(100000, maxWeight, LENGTH);
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 20000; i++) {
+			sb.setLength(0);
+			for (int j = (i % 50); j >= 0; j--) {
+				sb.append('x');
+			}
+			cache.put("k" + i, sb.toString());
+			assertTrue(cache.weight() <= maxWeight);
+		}
+		assertTrue(cache.weight() > 0);
+	}
+
+	@Test
+	public void updateChangesWeight() {
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(100, 1000, LENGTH);
+		cache.put("k", "0123456789");
+		assertEquals(10, cache.weight());
+		cache.put("k", "01234");
+		assertEquals(5, cache.weight());
+		cache.remove("k");
+		assertEquals(0, cache.weight());
+	}
+
+	@Test
+	public void heavierThanCacheNotStored() {
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(100, 10, LENGTH);
+		cache.put("big", "01234567890");
+		assertNull(cache.get("big"));
+		assertEquals(0, cache.weight());
+	}
+
+	@Test
+	public void frequentSurvivesScan() {
+		final TinyLFUCache<String, String> cache = new TinyLFUCache<String, String>(100);
+		cache.put("hot", "v");
+		for (int i = 0; i < 20; i++) {
+			assertEquals("v", cache.get("hot"));
+		}
+		// Scan of 5x capacity, shorter than sketch aging period (frequencies are not halved)
+		for (int i = 0; i < 500; i++) {
+			cache.put("scan" + i, "v");
+		}
+		assertEquals("v", cache.get("hot"));
+	}
+}